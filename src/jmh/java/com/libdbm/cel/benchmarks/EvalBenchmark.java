@@ -0,0 +1,53 @@
+package com.libdbm.cel.benchmarks;
+
+import com.libdbm.cel.CEL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the one-shot {@link CEL#eval} entry point.
+ *
+ * <p>The cold path parses, optimizes and evaluates an expression that has not been seen before;
+ * the warm path evaluates the same expression text again and is served by the program cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+  private static final String EXPRESSION =
+      "user.age >= 18 && user.tier == \"gold\" && cart.total * 0.9 > ";
+
+  private Map<String, Object> variables;
+  private long counter;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    variables =
+        Map.of("user", Map.of("age", 30L, "tier", "gold"), "cart", Map.of("total", 250.0));
+  }
+
+  @Benchmark
+  public Object cold() {
+    // A new literal makes every expression text unique, so the program cache always misses
+    return CEL.eval(EXPRESSION + (counter++ % 1_000_000), null, variables);
+  }
+
+  @Benchmark
+  public Object warm() {
+    return CEL.eval(EXPRESSION + "100", null, variables);
+  }
+}
@@ -0,0 +1,93 @@
+package com.libdbm.cel.benchmarks;
+
+import com.libdbm.cel.CEL;
+import com.libdbm.cel.Engine;
+import com.libdbm.cel.Program;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures {@link Program#evaluate} of compiled programs on typical workloads. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+  /** The expressions of each workload, evaluated against {@link #variables()}. */
+  static final Map<String, String> WORKLOADS =
+      Map.of(
+          "arithmetic",
+          "(x * 3 + y / 2.0 - 7) % 5 > 1.5 && x - 4 < y",
+          "select",
+          "order.customer.address.city == \"Paris\" && order.customer.tier == \"gold\"",
+          "macro",
+          "items.filter(i, i.price > 50.0).map(i, i.price * i.quantity).exists(t, t > 900.0)",
+          "regex",
+          "email.matches(\"^[a-z.]+@[a-z]+\\\\.(com|org)$\") && !name.matches(\"[0-9]\")",
+          "method",
+          "account.getBalance() + account.sum(x, 2, 3, 4) > 100");
+
+  @Param({"arithmetic", "select", "macro", "regex", "method"})
+  public String workload;
+
+  @Param({"INTERPRETED", "COMPILED"})
+  public Engine engine;
+
+  private Program program;
+  private Map<String, Object> variables;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    program = CEL.compile(WORKLOADS.get(workload), null, engine);
+    variables = variables();
+  }
+
+  @Benchmark
+  public Object evaluate() {
+    return program.evaluate(variables);
+  }
+
+  static Map<String, Object> variables() {
+    final var items = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < 100; i++) {
+      items.add(Map.of("price", i * 1.0, "quantity", (long) (i % 7)));
+    }
+    return Map.of(
+        "x", 42L,
+        "y", 7.5,
+        "name", "Ada Lovelace",
+        "email", "ada.lovelace@example.org",
+        "items", List.copyOf(items),
+        "account", new Account(),
+        "order",
+            Map.of(
+                "customer",
+                Map.of("tier", "gold", "address", Map.of("city", "Paris", "zip", "75001"))));
+  }
+
+  /** A Java object whose methods are called from expressions. */
+  public static final class Account {
+    public long getBalance() {
+      return 100L;
+    }
+
+    public long sum(final long a, final long b, final long c, final long d) {
+      return a + b + c + d;
+    }
+  }
+}
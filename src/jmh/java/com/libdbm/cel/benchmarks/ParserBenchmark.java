@@ -0,0 +1,66 @@
+package com.libdbm.cel.benchmarks;
+
+import com.libdbm.cel.ast.Expression;
+import com.libdbm.cel.parser.Parser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures parsing of expressions of increasing size and nesting. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({"small", "medium", "pathological"})
+  public String input;
+
+  private String expression;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    expression =
+        switch (input) {
+          case "small" -> "x + 1";
+          case "medium" ->
+              "user.age >= 18 && user.tier in [\"gold\", \"silver\"]"
+                  + " && cart.items.filter(i, i.price > 10.0).map(i, i.price * 2).size() > 3"
+                  + " && user.email.matches(\"^[a-z]+@example\\\\.com$\")"
+                  + " ? {\"discount\": cart.total * 0.1, \"reason\": \"loyal\"}"
+                  + " : {\"discount\": 0.0, \"reason\": \"none\"}";
+          case "pathological" -> pathological();
+          default -> throw new IllegalArgumentException("Unknown input: " + input);
+        };
+  }
+
+  // Deep nesting exercises the recursion of the parser, long chains its loops
+  private static String pathological() {
+    final var builder = new StringBuilder();
+    builder.append("(".repeat(100)).append("x").append(")".repeat(100));
+    for (int i = 0; i < 500; i++) {
+      builder.append(i % 2 == 0 ? " + " : " * ").append(i);
+    }
+    builder.append(" > 0 && [");
+    for (int i = 0; i < 500; i++) {
+      builder.append(i == 0 ? "" : ", ").append('"').append("item").append(i).append('"');
+    }
+    return builder.append("].size() > 0").toString();
+  }
+
+  @Benchmark
+  public Expression parse() {
+    return new Parser(expression).parse();
+  }
+}
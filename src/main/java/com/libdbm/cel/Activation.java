@@ -0,0 +1,103 @@
+package com.libdbm.cel;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Provides the values of the variables referenced by a CEL expression.
+ *
+ * <p>An activation is consulted only when an evaluation first touches a variable, and the
+ * resolved value is memoized for the rest of that evaluation. Implementations can therefore defer
+ * expensive work, such as decoding a database column or a JSON field, until an expression actually
+ * needs it; variables that are never referenced are never resolved.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * final Activation activation = new Activation() {
+ *   public boolean contains(final String name) {
+ *     return row.hasColumn(name);
+ *   }
+ *
+ *   public Object resolve(final String name) {
+ *     return row.decode(name);
+ *   }
+ * };
+ * final Object result = program.evaluateWith(activation);
+ * }</pre>
+ */
+public interface Activation {
+  /**
+   * Returns whether a variable with the given name is defined.
+   *
+   * @param name The variable name
+   * @return true if the variable is defined, even if its value is null
+   */
+  boolean contains(final String name);
+
+  /**
+   * Resolves the value of a defined variable.
+   *
+   * <p>This method is called at most once per variable and evaluation, and only after {@link
+   * #contains} has returned true for the same name.
+   *
+   * @param name The variable name
+   * @return The value of the variable; may be null
+   */
+  Object resolve(final String name);
+
+  /**
+   * Returns an activation backed by a map of variable values.
+   *
+   * <p>The map is read directly and is never modified.
+   *
+   * @param variables A map of variable names to their values
+   * @return An activation that reads from the map
+   */
+  static Activation of(final Map<String, ?> variables) {
+    return new MapActivation(variables != null ? variables : Map.of());
+  }
+
+  /**
+   * Returns an activation whose values are computed on demand.
+   *
+   * <p>Each supplier is invoked only if an evaluation references its variable, and at most once per
+   * evaluation.
+   *
+   * @param suppliers A map of variable names to suppliers of their values
+   * @return An activation that resolves variables through the suppliers
+   */
+  static Activation lazy(final Map<String, ? extends Supplier<?>> suppliers) {
+    return new Activation() {
+      @Override
+      public boolean contains(final String name) {
+        return suppliers.containsKey(name);
+      }
+
+      @Override
+      public Object resolve(final String name) {
+        return suppliers.get(name).get();
+      }
+    };
+  }
+}
+
+/**
+ * Activation that reads variables from a map.
+ *
+ * <p>Map lookups are already cheap, so the evaluators read through to the map instead of memoizing
+ * its values.
+ *
+ * @param variables the variables to read from
+ */
+record MapActivation(Map<String, ?> variables) implements Activation {
+  @Override
+  public boolean contains(final String name) {
+    return variables.containsKey(name);
+  }
+
+  @Override
+  public Object resolve(final String name) {
+    return variables.get(name);
+  }
+}
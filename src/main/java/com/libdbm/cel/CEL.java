@@ -19,7 +19,20 @@ import java.util.Map;
  * }</pre>
  */
 public class CEL {
+  /**
+   * The maximum number of programs kept by the {@link #eval} cache. Configurable through the {@code
+   * com.libdbm.cel.cacheSize} system property.
+   */
+  static final int CACHE_SIZE = Integer.getInteger("com.libdbm.cel.cacheSize", 1024);
+
+  private static final Cache<Key, Program> PROGRAMS = new Cache<>(CACHE_SIZE);
+
+  // The standard library has no state, so every evaluator without a custom library shares one
+  private static final Functions STANDARD = new StandardFunctions();
+
   private final Functions functions;
+  private final Engine engine;
+  private final Declarations declarations;
 
   /** Creates a new CEL evaluator with the standard function library. */
   public CEL() {
@@ -33,7 +46,36 @@ public class CEL {
    *     library will be used.
    */
   public CEL(final Functions functions) {
-    this.functions = functions != null ? functions : new StandardFunctions();
+    this(functions, null);
+  }
+
+  /**
+   * Creates a new CEL evaluator that compiles programs for the given engine.
+   *
+   * @param functions Optional custom function library. If not provided, the standard CEL function
+   *     library will be used.
+   * @param engine Optional execution engine. If not provided, {@link Engine#INTERPRETED} is used.
+   */
+  public CEL(final Functions functions, final Engine engine) {
+    this(functions, engine, null);
+  }
+
+  /**
+   * Creates a new CEL evaluator whose programs rely on declared variable types.
+   *
+   * <p>Programs evaluated by the {@link Engine#COMPILED} engine use the declared types to compute
+   * proven numeric and boolean expressions without boxing. See {@link Declarations} for the
+   * guarantees the variables must satisfy.
+   *
+   * @param functions Optional custom function library. If not provided, the standard CEL function
+   *     library will be used.
+   * @param engine Optional execution engine. If not provided, {@link Engine#INTERPRETED} is used.
+   * @param declarations Optional variable declarations. If not provided, all variables are dynamic.
+   */
+  public CEL(final Functions functions, final Engine engine, final Declarations declarations) {
+    this.functions = functions != null ? functions : STANDARD;
+    this.engine = engine != null ? engine : Engine.INTERPRETED;
+    this.declarations = declarations;
   }
 
   /**
@@ -48,9 +90,56 @@ public class CEL {
    * @throws ParseError if the expression is invalid
    */
   public static Program compile(final String expression, final Functions functions) {
+    return compile(expression, functions, Engine.INTERPRETED);
+  }
+
+  /**
+   * Compiles a CEL expression for the given engine using the provided function library.
+   *
+   * <p>Use {@link Engine#COMPILED} for expressions that are evaluated many times: the expression is
+   * compiled once into pre-specialized closures, trading a slightly higher compile cost for faster
+   * evaluations.
+   *
+   * @param expression The CEL expression to compile
+   * @param functions The function library to use when compiling the program
+   * @param engine The engine used to evaluate the program
+   * @return A compiled {@link Program} using the provided functions and engine
+   * @throws ParseError if the expression is invalid
+   */
+  public static Program compile(
+      final String expression, final Functions functions, final Engine engine) {
+    return compile(expression, functions, engine, null);
+  }
+
+  /**
+   * Compiles a CEL expression whose variables have declared types.
+   *
+   * <p>The declarations let the {@link Engine#COMPILED} engine evaluate proven numeric and boolean
+   * expressions without boxing intermediate values. See {@link Declarations} for the guarantees the
+   * variables must satisfy.
+   *
+   * @param expression The CEL expression to compile
+   * @param functions The function library to use when compiling the program
+   * @param engine The engine used to evaluate the program
+   * @param declarations The declared variable types, or null if all variables are dynamic
+   * @return A compiled {@link Program} using the provided functions, engine and declarations
+   * @throws ParseError if the expression is invalid
+   */
+  public static Program compile(
+      final String expression,
+      final Functions functions,
+      final Engine engine,
+      final Declarations declarations) {
     final var parser = new Parser(expression);
+    final var optimizer = new Optimizer(functions);
 
-    return new Program(parser.parse(), functions);
+    return new Program(
+        expression,
+        optimizer.optimize(parser.parse()),
+        functions,
+        engine,
+        declarations,
+        Program.PROMOTION_THRESHOLD);
   }
 
   /**
@@ -68,8 +157,34 @@ public class CEL {
    */
   public static Object eval(
       final String expression, final Functions functions, final Map<String, Object> variables) {
-    final var program = compile(expression, functions);
-    return program.evaluate(variables);
+    return cached(expression, functions, Engine.INTERPRETED, null).evaluate(variables);
+  }
+
+  /**
+   * Returns the counters of the program cache shared by the {@code eval} methods.
+   *
+   * <p>Repeated evaluations of the same expression text with the same function library reuse the
+   * compiled {@link Program} instead of parsing the expression again. The cache holds at most
+   * {@code com.libdbm.cel.cacheSize} programs (1024 by default) and evicts the least recently used
+   * ones first.
+   *
+   * @return A snapshot of the cache hits, misses, evictions and size
+   */
+  public static CacheStatistics cacheStatistics() {
+    return PROGRAMS.statistics();
+  }
+
+  private static Program cached(
+      final String expression,
+      final Functions functions,
+      final Engine engine,
+      final Declarations declarations) {
+    // A missing library and any unmodified standard library compile to the same programs
+    final var library =
+        functions == null || functions.getClass() == StandardFunctions.class ? STANDARD : functions;
+    return PROGRAMS.get(
+        new Key(expression, library, engine, declarations),
+        key -> compile(expression, functions, engine, declarations));
   }
 
   /**
@@ -91,15 +206,16 @@ public class CEL {
    * }</pre>
    */
   public Program compile(final String expression) {
-    return compile(expression, functions);
+    return compile(expression, functions, engine, declarations);
   }
 
   /**
    * Evaluates a CEL expression with the given variables.
    *
-   * <p>This is a convenience method that compiles and evaluates the expression in one step. For
-   * better performance when evaluating the same expression multiple times, use {@link #compile} to
-   * create a reusable {@link Program}.
+   * <p>This is a convenience method that compiles and evaluates the expression in one step.
+   * Compiled programs are kept in a bounded cache (see {@link #cacheStatistics()}), but for the
+   * best performance when evaluating the same expression many times, use {@link #compile} to create
+   * a reusable {@link Program}.
    *
    * @param expression The CEL expression to evaluate
    * @param variables A map of variable names to their values
@@ -115,6 +231,25 @@ public class CEL {
    * }</pre>
    */
   public Object eval(final String expression, final Map<String, Object> variables) {
-    return eval(expression, functions, variables);
+    return cached(expression, functions, engine, declarations).evaluate(variables);
+  }
+
+  /** Identifies a cached program; function libraries and declarations are compared by identity. */
+  private record Key(
+      String expression, Functions functions, Engine engine, Declarations declarations) {
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Key key
+          && expression.equals(key.expression)
+          && functions == key.functions
+          && engine == key.engine
+          && declarations == key.declarations;
+    }
+
+    @Override
+    public int hashCode() {
+      final var hash = expression.hashCode() * 31 + System.identityHashCode(functions);
+      return (hash * 31 + engine.hashCode()) * 31 + System.identityHashCode(declarations);
+    }
   }
 }
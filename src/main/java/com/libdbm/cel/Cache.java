@@ -0,0 +1,108 @@
+package com.libdbm.cel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread-safe, size-bounded cache with least-recently-used eviction.
+ *
+ * <p>Entries are spread over independently locked segments so that concurrent lookups of different
+ * keys rarely contend. Each segment evicts its own least recently used entry once it is full, which
+ * approximates LRU over the whole cache. Values are computed outside of any lock, so a value may
+ * occasionally be computed more than once when the same key is missed concurrently.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class Cache<K, V> {
+  private final Segment<K, V>[] segments;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructs a cache holding at most the given number of entries.
+   *
+   * @param capacity the maximum number of entries; values below 1 disable caching
+   */
+  Cache(final int capacity) {
+    final int count = capacity >= 256 ? 16 : 1;
+    this.segments = segments(count);
+    for (int i = 0; i < count; i++) {
+      // Distribute the capacity so the segments add up to the requested total
+      segments[i] = new Segment<>(capacity / count + (i < capacity % count ? 1 : 0), evictions);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Segment<K, V>[] segments(final int count) {
+    return (Segment<K, V>[]) new Segment<?, ?>[count];
+  }
+
+  /**
+   * Returns the value cached for a key, computing and caching it if absent.
+   *
+   * @param key the key to look up
+   * @param loader computes the value for a missing key; exceptions are propagated and nothing is
+   *     cached
+   * @return the cached or computed value
+   */
+  V get(final K key, final Function<? super K, ? extends V> loader) {
+    final var segment = segments[(key.hashCode() & 0x7fffffff) % segments.length];
+    final var cached = segment.get(key);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+    misses.increment();
+    final V value = loader.apply(key);
+    segment.put(key, value);
+    return value;
+  }
+
+  /**
+   * Returns a snapshot of the cache counters.
+   *
+   * @return the current statistics
+   */
+  CacheStatistics statistics() {
+    long size = 0;
+    for (final var segment : segments) {
+      size += segment.size();
+    }
+    return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(), size);
+  }
+
+  /** A single lock-protected LRU segment. */
+  private static final class Segment<K, V> {
+    private final LinkedHashMap<K, V> entries;
+
+    Segment(final int capacity, final LongAdder evictions) {
+      this.entries =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+              if (size() > capacity) {
+                evictions.increment();
+                return true;
+              }
+              return false;
+            }
+          };
+    }
+
+    synchronized V get(final K key) {
+      return entries.get(key);
+    }
+
+    synchronized void put(final K key, final V value) {
+      entries.put(key, value);
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.libdbm.cel;
+
+/**
+ * A snapshot of the counters of a bounded cache maintained by the library.
+ *
+ * @param hits the number of lookups that found a cached value
+ * @param misses the number of lookups that had to compute a value
+ * @param evictions the number of values removed to keep the cache within its bounds
+ * @param size the number of values currently cached
+ */
+public record CacheStatistics(long hits, long misses, long evictions, long size) {
+  /**
+   * Returns the fraction of lookups that were served from the cache.
+   *
+   * @return the hit rate between 0.0 and 1.0, or 0.0 if there were no lookups
+   */
+  public double hitRate() {
+    final var lookups = hits + misses;
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+}
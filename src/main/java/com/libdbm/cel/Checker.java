@@ -0,0 +1,285 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Type checker that infers the type of every node of a CEL expression from declared variable types.
+ *
+ * <p>Inference is conservative: a node is given a concrete type only when every successful
+ * evaluation is guaranteed to produce a value of that type, given that variables hold values of
+ * their declared types. Anything else is typed {@code dyn}. The checker never rejects an
+ * expression; expressions that can only fail still fail at evaluation time, exactly as they would
+ * without declarations.
+ */
+final class Checker implements Expression.Visitor<Type> {
+  private final Declarations declarations;
+  private final boolean standard;
+  private final Map<String, Type> locals = new HashMap<>();
+  private final Map<Expression, Type> types = new IdentityHashMap<>();
+
+  /**
+   * Constructs a checker.
+   *
+   * @param declarations the declared variable types
+   * @param standard whether calls are bound to the unmodified standard library, whose result types
+   *     are known
+   */
+  Checker(final Declarations declarations, final boolean standard) {
+    this.declarations = declarations != null ? declarations : Declarations.empty();
+    this.standard = standard;
+  }
+
+  /**
+   * Infers the types of an expression and all of its subexpressions.
+   *
+   * @param expr the expression to check
+   * @return the inferred types, keyed by node identity
+   */
+  Map<Expression, Type> check(final Expression expr) {
+    infer(expr);
+    return types;
+  }
+
+  private Type infer(final Expression expr) {
+    final var type = expr.accept(this);
+    types.put(expr, type);
+    return type;
+  }
+
+  // Infers the type of an expression that sees an additional scoped variable
+  private Type infer(final Expression expr, final String name, final Type type) {
+    final var shadowed = locals.put(name, type);
+    try {
+      return infer(expr);
+    } finally {
+      restore(name, shadowed);
+    }
+  }
+
+  private Type variable(final String name) {
+    final var local = locals.get(name);
+    return local != null ? local : declarations.type(name);
+  }
+
+  // The type of a value that is one of two inferred types
+  private static Type join(final Type left, final Type right) {
+    return left.equals(right) ? left : Type.DYN;
+  }
+
+  private Type join(final List<Expression> expressions) {
+    Type result = null;
+    for (final Expression expr : expressions) {
+      final var type = infer(expr);
+      result = result == null ? type : join(result, type);
+    }
+    return result != null ? result : Type.DYN;
+  }
+
+  @Override
+  public Type visitLiteral(final Literal expr) {
+    final var value = expr.value();
+    if (value == null) {
+      return Type.NULL;
+    } else if (value instanceof Boolean) {
+      return Type.BOOL;
+    } else if (value instanceof Long || value instanceof Integer) {
+      return expr.type() == LiteralType.UINT ? Type.UINT : Type.INT;
+    } else if (value instanceof Double || value instanceof Float) {
+      return Type.DOUBLE;
+    } else if (value instanceof String) {
+      return expr.type() == LiteralType.BYTES ? Type.BYTES : Type.STRING;
+    }
+    return Type.DYN;
+  }
+
+  @Override
+  public Type visitIdentifier(final Identifier expr) {
+    return variable(expr.name());
+  }
+
+  @Override
+  public Type visitSelect(final Select expr) {
+    if (expr.operand() == null) {
+      return expr.isTest() ? Type.BOOL : variable(expr.field());
+    }
+    final var operand = infer(expr.operand());
+    return expr.isTest() ? Type.BOOL : operand.value();
+  }
+
+  @Override
+  public Type visitCall(final Call expr) {
+    final var target = expr.target() != null ? infer(expr.target()) : null;
+
+    if (expr.isMacro() && target != null) {
+      final var args = expr.args();
+      if (args.size() < 2 || !(args.get(0) instanceof Identifier identifier)) {
+        args.forEach(this::infer);
+        return Type.DYN;
+      }
+      infer(args.get(0));
+      final var element = iterated(target);
+      final var body = infer(args.get(1), identifier.name(), element);
+      return switch (expr.function()) {
+        case "map" -> Type.list(body);
+        case "filter" -> Type.list(element);
+        case "all", "exists", "existsOne" -> Type.BOOL;
+        default -> Type.DYN;
+      };
+    }
+
+    expr.args().forEach(this::infer);
+    if (!standard) {
+      return Type.DYN;
+    }
+    if (target != null) {
+      return switch (expr.function()) {
+        case "contains", "startsWith", "endsWith" -> Type.BOOL;
+        case "toLowerCase", "toUpperCase", "trim", "replace" -> Type.STRING;
+        case "size" -> Type.INT;
+        default -> Type.DYN;
+      };
+    }
+    return switch (expr.function()) {
+      case "size", "int", "getDate", "getMonth", "getFullYear", "getHours", "getMinutes",
+          "getSeconds" ->
+          Type.INT;
+      case "uint" -> Type.UINT;
+      case "double" -> Type.DOUBLE;
+      case "string", "type" -> Type.STRING;
+      case "bool", "has", "matches" -> Type.BOOL;
+      case "timestamp" -> Type.TIMESTAMP;
+      case "duration" -> Type.DURATION;
+      default -> Type.DYN;
+    };
+  }
+
+  @Override
+  public Type visitList(final ListExpression expr) {
+    return Type.list(join(expr.elements()));
+  }
+
+  @Override
+  public Type visitMap(final MapExpression expr) {
+    Type key = null;
+    Type value = null;
+    for (final MapEntry entry : expr.entries()) {
+      final var k = infer(entry.key());
+      final var v = infer(entry.value());
+      key = key == null ? k : join(key, k);
+      value = value == null ? v : join(value, v);
+    }
+    return Type.map(key != null ? key : Type.DYN, value != null ? value : Type.DYN);
+  }
+
+  @Override
+  public Type visitStruct(final Struct expr) {
+    Type value = null;
+    for (final FieldInitializer field : expr.fields()) {
+      final var v = infer(field.value());
+      value = value == null ? v : join(value, v);
+    }
+    return Type.map(Type.STRING, value != null ? value : Type.DYN);
+  }
+
+  @Override
+  public Type visitComprehension(final Comprehension expr) {
+    final var range = infer(expr.range());
+    infer(expr.initializer());
+
+    // The accumulator changes with every step, so it is only known dynamically
+    final var shadowedVariable = locals.put(expr.variable(), iterated(range));
+    final var shadowedAccumulator = locals.put(expr.accumulator(), Type.DYN);
+    try {
+      infer(expr.condition());
+      infer(expr.step());
+      restore(expr.variable(), shadowedVariable);
+      return infer(expr.result());
+    } finally {
+      restore(expr.accumulator(), shadowedAccumulator);
+    }
+  }
+
+  // Macros and comprehensions iterate over the elements of lists and the keys of maps
+  private static Type iterated(final Type type) {
+    return type.kind() == Type.Kind.MAP ? type.parameters().get(0) : type.element();
+  }
+
+  private void restore(final String name, final Type shadowed) {
+    if (shadowed != null) {
+      locals.put(name, shadowed);
+    } else {
+      locals.remove(name);
+    }
+  }
+
+  @Override
+  public Type visitUnary(final Unary expr) {
+    final var operand = infer(expr.operand());
+    return switch (expr.op()) {
+      case NOT -> Type.BOOL;
+      case NEGATE -> operand.numeric() ? arithmetic(operand, Type.INT) : Type.DYN;
+    };
+  }
+
+  @Override
+  public Type visitBinary(final Binary expr) {
+    final var left = infer(expr.left());
+    final var right = infer(expr.right());
+
+    return switch (expr.op()) {
+      case LOGICAL_AND, LOGICAL_OR, IN -> Type.BOOL;
+      case EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> Type.BOOL;
+      case ADD -> {
+        if (left.kind() == Type.Kind.STRING || right.kind() == Type.Kind.STRING) {
+          yield Type.STRING;
+        }
+        if (left.kind() == Type.Kind.LIST && right.kind() == Type.Kind.LIST) {
+          yield Type.list(join(left.element(), right.element()));
+        }
+        yield arithmetic(left, right);
+      }
+      case SUBTRACT -> arithmetic(left, right);
+      case MULTIPLY -> {
+        if (left.kind() == Type.Kind.STRING && right.numeric()) {
+          yield Type.STRING;
+        }
+        yield arithmetic(left, right);
+      }
+      case DIVIDE -> left.numeric() && right.numeric() ? Type.DOUBLE : Type.DYN;
+      case MODULO -> left.numeric() && right.numeric() ? Type.INT : Type.DYN;
+    };
+  }
+
+  // Numeric operators produce a double if either operand is a double, otherwise an integer
+  private static Type arithmetic(final Type left, final Type right) {
+    if (!left.numeric() || !right.numeric()) {
+      return Type.DYN;
+    }
+    if (left.kind() == Type.Kind.DOUBLE || right.kind() == Type.Kind.DOUBLE) {
+      return Type.DOUBLE;
+    }
+    return left.kind() == Type.Kind.UINT && right.kind() == Type.Kind.UINT ? Type.UINT : Type.INT;
+  }
+
+  @Override
+  public Type visitConditional(final Conditional expr) {
+    infer(expr.condition());
+    return join(infer(expr.then()), infer(expr.otherwise()));
+  }
+
+  @Override
+  public Type visitIndex(final Index expr) {
+    final var operand = infer(expr.operand());
+    infer(expr.index());
+    return switch (operand.kind()) {
+      case LIST -> operand.element();
+      case MAP -> operand.value();
+      case STRING -> Type.STRING;
+      default -> Type.DYN;
+    };
+  }
+}
@@ -0,0 +1,1341 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiler that turns CEL expressions into trees of {@link Node} closures.
+ *
+ * <p>The AST is visited once. Every node is replaced by a closure specialized for its operator,
+ * with literal operands captured as constants and standard functions bound directly to their
+ * implementations. Evaluating the resulting tree produces the same results and errors as the
+ * {@link Interpreter}, without re-dispatching on node type or operator at every step.
+ *
+ * <p>Identifiers are resolved to integer slots of a {@link Frame}. Each free variable gets one slot
+ * that is loaded at most once per evaluation, and each macro or comprehension variable gets its own
+ * slot, lexically scoped to the expressions that can see it.
+ *
+ * <p>When variable {@link Declarations} are supplied, the {@link Checker} infers the type of every
+ * node first. Arithmetic, comparisons and logical operators whose operand types are proven are
+ * compiled to {@link Node.OfLong}, {@link Node.OfDouble} and {@link Node.OfBoolean} nodes that
+ * pass primitives between each other instead of boxed values. Without declarations, ordering
+ * comparisons of arithmetic such as {@code a + b > c} still compare the unboxed result whenever the
+ * operands turn out to be numbers at runtime.
+ */
+final class Compiler implements Expression.Visitor<Node> {
+  // Methods implemented by StandardFunctions itself rather than dispatched to Java objects
+  private static final Set<String> BUILTIN_METHODS =
+      Set.of(
+          "contains", "startsWith", "endsWith", "toLowerCase", "toUpperCase", "trim", "replace",
+          "split", "size", "map", "filter", "all", "exists", "existsOne");
+
+  // Marks an element dropped by a fused filter
+  private static final Object SKIP = new Object();
+
+  private final Functions functions;
+  private final boolean standard;
+  private final Declarations declarations;
+  private final boolean adaptive;
+  private final Map<Expression, Type> types = new IdentityHashMap<>();
+  private final Map<String, Integer> globals = new HashMap<>();
+  private final Map<String, Integer> locals = new HashMap<>();
+  private final Map<Expression, Node> memos = new HashMap<>();
+  private Set<Expression> common = Set.of();
+  private int slots;
+
+  /**
+   * Constructs a compiler that binds calls to the given function library.
+   *
+   * @param functions the function library; if null, {@link StandardFunctions} is used
+   */
+  Compiler(final Functions functions) {
+    this(functions, null);
+  }
+
+  /**
+   * Constructs a compiler that specializes nodes for the given variable declarations.
+   *
+   * @param functions the function library; if null, {@link StandardFunctions} is used
+   * @param declarations the declared variable types; if null, no types are inferred
+   */
+  Compiler(final Functions functions, final Declarations declarations) {
+    this(functions, declarations, false);
+  }
+
+  /**
+   * Constructs a compiler that optionally compiles logical operators for the {@link
+   * Engine#ADAPTIVE} engine.
+   *
+   * @param functions the function library; if null, {@link StandardFunctions} is used
+   * @param declarations the declared variable types; if null, no types are inferred
+   * @param adaptive whether chains of {@code &&} and {@code ||} operands are compiled into {@link
+   *     Junction}s that reorder the operands that cannot fail
+   */
+  Compiler(final Functions functions, final Declarations declarations, final boolean adaptive) {
+    this.adaptive = adaptive;
+    this.functions = functions != null ? functions : new StandardFunctions();
+    // Only the unmodified standard library may have its functions bound at compile time
+    this.standard = this.functions.getClass() == StandardFunctions.class;
+    this.declarations = declarations;
+  }
+
+  /**
+   * Compiles an expression into a node tree.
+   *
+   * @param expr the expression to compile
+   * @return the compiled node
+   */
+  Node compile(final Expression expr) {
+    // Repeated subexpressions are compiled once and evaluated at most once per frame
+    if (locals.isEmpty() && common.contains(expr)) {
+      final var memo = memos.get(expr);
+      if (memo != null) {
+        return memo;
+      }
+      final var node = memoize(expr.accept(this), slots++);
+      memos.put(expr, node);
+      return node;
+    }
+    return expr.accept(this);
+  }
+
+  // The memo of a node proven to be an int, double or bool keeps the primitive in its slot, so
+  // typed operands sharing it are still computed without boxing
+  private static Node memoize(final Node node, final int slot) {
+    if (node instanceof Node.OfLong integer) {
+      return (Node.OfLong)
+          frame -> {
+            if (frame.resolved(slot)) {
+              return frame.getLong(slot);
+            }
+            final var value = integer.evaluateLong(frame);
+            frame.setLong(slot, value);
+            return value;
+          };
+    }
+    if (node instanceof Node.OfDouble real) {
+      return (Node.OfDouble)
+          frame -> {
+            if (frame.resolved(slot)) {
+              return frame.getDouble(slot);
+            }
+            final var value = real.evaluateDouble(frame);
+            frame.setDouble(slot, value);
+            return value;
+          };
+    }
+    if (node instanceof Node.OfBoolean bool) {
+      return (Node.OfBoolean)
+          frame -> {
+            if (frame.resolved(slot)) {
+              return (Boolean) frame.get(slot);
+            }
+            final var value = bool.evaluateBoolean(frame);
+            frame.set(slot, value);
+            return value;
+          };
+    }
+    return frame -> {
+      if (frame.resolved(slot)) {
+        return frame.get(slot);
+      }
+      final var value = node.evaluate(frame);
+      frame.set(slot, value);
+      return value;
+    };
+  }
+
+  /**
+   * Compiles an expression into an executable program.
+   *
+   * <p>Subexpressions that occur more than once in the expression and have no side effects are
+   * evaluated at most once per frame.
+   *
+   * @param expr the expression to compile
+   * @return the compiled node along with the frame size it requires
+   */
+  Executable build(final Expression expr) {
+    if (declarations != null) {
+      types.putAll(new Checker(declarations, standard).check(expr));
+    }
+    share(List.of(expr));
+    final var node = compile(expr);
+    return new Executable(node, slots);
+  }
+
+  /**
+   * Compiles a group of expressions that are evaluated together over a single frame.
+   *
+   * <p>The expressions share their variable slots, and subexpressions without side effects
+   * occurring more than once in the group are evaluated at most once per frame.
+   *
+   * @param exprs the expressions to compile
+   * @return the compiled nodes, in the order of the expressions; evaluate them through a frame of
+   *     {@link #slots()} slots
+   */
+  Node[] buildAll(final List<Expression> exprs) {
+    if (declarations != null) {
+      for (final Expression expr : exprs) {
+        types.putAll(new Checker(declarations, standard).check(expr));
+      }
+    }
+    share(exprs);
+    return compile(exprs);
+  }
+
+  // Repeated subexpressions are only shared when evaluating them once cannot skip side effects
+  private void share(final List<Expression> exprs) {
+    final var repeated = Subexpressions.common(exprs);
+    repeated.removeIf(candidate -> !pure(candidate));
+    common = repeated.isEmpty() ? Set.of() : repeated;
+  }
+
+  /**
+   * Returns whether calls are bound to the unmodified standard library.
+   *
+   * @return true if the function library is exactly {@link StandardFunctions}
+   */
+  boolean standard() {
+    return standard;
+  }
+
+  /**
+   * Returns the number of frame slots required by everything compiled so far.
+   *
+   * @return the frame size
+   */
+  int slots() {
+    return slots;
+  }
+
+  /**
+   * A compiled expression together with the number of frame slots it needs.
+   *
+   * @param node the root node of the compiled expression
+   * @param slots the frame size required to evaluate the node
+   */
+  record Executable(Node node, int slots) {
+    Object evaluate(final Activation activation) {
+      return node.evaluate(new Frame(activation, slots));
+    }
+
+    long evaluateLong(final Activation activation) {
+      return node.evaluateLong(new Frame(activation, slots));
+    }
+
+    double evaluateDouble(final Activation activation) {
+      return node.evaluateDouble(new Frame(activation, slots));
+    }
+
+    boolean evaluateBoolean(final Activation activation) {
+      return node.evaluateBoolean(new Frame(activation, slots));
+    }
+
+    // Evaluates a batch of inputs through a single frame, returning the number of results
+    int evaluateAll(final Iterable<? extends Map<String, ?>> batch, final Object[] results) {
+      final var frame = new Frame(null, slots);
+      int count = 0;
+      for (final Map<String, ?> variables : batch) {
+        if (count == results.length) {
+          throw new IllegalArgumentException(
+              "Batch has more than " + results.length + " inputs");
+        }
+        results[count++] = node.evaluate(frame.reset(variables));
+      }
+      return count;
+    }
+
+    // Evaluates the inputs in [from, to) through a single frame, storing each result at the index
+    // of its input
+    void evaluateAll(
+        final List<? extends Map<String, ?>> batch,
+        final int from,
+        final int to,
+        final Object[] results) {
+      final var frame = new Frame(null, slots);
+      for (int i = from; i < to; i++) {
+        results[i] = node.evaluate(frame.reset(batch.get(i)));
+      }
+    }
+  }
+
+  // Free variables share one slot per name across the whole expression
+  private int global(final String name) {
+    return globals.computeIfAbsent(name, key -> slots++);
+  }
+
+  // Binds a macro or comprehension variable to a fresh slot, returning the shadowed binding
+  private Integer declare(final String name, final int slot) {
+    return locals.put(name, slot);
+  }
+
+  private void restore(final String name, final Integer previous) {
+    if (previous != null) {
+      locals.put(name, previous);
+    } else {
+      locals.remove(name);
+    }
+  }
+
+  private Type type(final Expression expr) {
+    return types.getOrDefault(expr, Type.DYN);
+  }
+
+  private Node[] compile(final List<Expression> expressions) {
+    final var nodes = new Node[expressions.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = compile(expressions.get(i));
+    }
+    return nodes;
+  }
+
+  @Override
+  public Node visitLiteral(final Literal expr) {
+    final var value = expr.value();
+    return frame -> value;
+  }
+
+  @Override
+  public Node visitIdentifier(final Identifier expr) {
+    final var name = expr.name();
+    final var local = locals.get(name);
+    if (local != null) {
+      final int slot = local;
+      return frame -> frame.get(slot);
+    }
+    final int slot = global(name);
+    return frame -> frame.global(slot, name);
+  }
+
+  @Override
+  public Node visitSelect(final Select expr) {
+    final var field = expr.field();
+    final var test = expr.isTest();
+    if (expr.operand() == null) {
+      // A leading dot selects from the variables themselves
+      final var local = locals.get(field);
+      if (local != null) {
+        final int slot = local;
+        return test ? frame -> true : frame -> frame.get(slot);
+      }
+      final int slot = global(field);
+      if (test) {
+        return frame -> frame.defined(slot, field);
+      }
+      return frame -> {
+        if (!frame.defined(slot, field)) {
+          throw new EvaluationError("Field " + field + " not found");
+        }
+        return frame.global(slot, field);
+      };
+    }
+    final var operand = compile(expr.operand());
+    return frame -> Operators.select(operand.evaluate(frame), field, test);
+  }
+
+  @Override
+  public Node visitCall(final Call expr) {
+    if (expr.isMacro() && expr.target() != null) {
+      return compileMacro(expr);
+    }
+
+    final var name = expr.function();
+    final var args = compile(expr.args());
+
+    if (expr.target() != null) {
+      final var target = compile(expr.target());
+      if (standard) {
+        final var bound = bindMethod(target, name, args);
+        if (bound != null) {
+          return bound;
+        }
+      }
+      return frame -> {
+        final var values = evaluate(args, frame);
+        return functions.callMethod(target.evaluate(frame), name, values);
+      };
+    }
+
+    if (standard) {
+      final var pattern = pattern(expr);
+      if (pattern != null) {
+        final var text = args[0];
+        return (Node.OfBoolean) frame -> pattern.matcher((String) text.evaluate(frame)).find();
+      }
+      final var bound = bindFunction(name, args);
+      if (bound != null) {
+        return bound;
+      }
+    }
+    return frame -> functions.callFunction(name, evaluate(args, frame));
+  }
+
+  // Compiles the literal pattern of a matches() call once, leaving invalid patterns to fail when
+  // the call is evaluated
+  private static Pattern pattern(final Call expr) {
+    if (!expr.function().equals("matches")
+        || expr.args().size() != 2
+        || !(expr.args().get(1) instanceof Literal literal)
+        || !(literal.value() instanceof String regex)) {
+      return null;
+    }
+    try {
+      return Pattern.compile(regex);
+    } catch (final PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  private static List<Object> evaluate(final Node[] args, final Frame frame) {
+    final var values = new ArrayList<>(args.length);
+    for (final Node arg : args) {
+      values.add(arg.evaluate(frame));
+    }
+    return values;
+  }
+
+  // Binds standard global functions whose arity matches directly to their implementations
+  private Node bindFunction(final String name, final Node[] args) {
+    if (args.length == 0 && name.equals("timestamp")) {
+      return frame -> Utilities.timestamp(null);
+    }
+    if (args.length == 1) {
+      final Function<Object, Object> function =
+          switch (name) {
+            case "size" -> Utilities::sizeOf;
+            case "int" -> Utilities::asInt;
+            case "uint" -> Utilities::asUInt;
+            case "double" -> Utilities::asDouble;
+            case "string" -> Utilities::asString;
+            case "bool" -> Utilities::asBool;
+            case "type" -> Utilities::typeOf;
+            case "timestamp" -> Utilities::timestamp;
+            case "duration" -> value -> Utilities.duration((String) value);
+            case "getDate" -> Utilities::dateOf;
+            case "getMonth" -> Utilities::monthOf;
+            case "getFullYear" -> Utilities::yearOf;
+            case "getHours" -> Utilities::hoursOf;
+            case "getMinutes" -> Utilities::minutesOf;
+            case "getSeconds" -> Utilities::secondsOf;
+            default -> null;
+          };
+      if (function != null) {
+        final var arg = args[0];
+        return frame -> function.apply(arg.evaluate(frame));
+      }
+    }
+    if (args.length == 2) {
+      final BiFunction<Object, Object, Object> function =
+          switch (name) {
+            case "has" -> Utilities::has;
+            case "matches" -> (text, pattern) -> Utilities.matches((String) text, (String) pattern);
+            default -> null;
+          };
+      if (function != null) {
+        final var first = args[0];
+        final var second = args[1];
+        return frame -> function.apply(first.evaluate(frame), second.evaluate(frame));
+      }
+    }
+    return null;
+  }
+
+  // Binds the common standard string methods, falling back to the library for the other builtin
+  // methods so that errors are reported exactly as before
+  private Node bindMethod(final Node target, final String name, final Node[] args) {
+    if (!BUILTIN_METHODS.contains(name)) {
+      // Everything else is a Java method, dispatched through an inline cache at this call site
+      final var site = new JavaMethods.CallSite(name);
+      return frame -> {
+        final var values = new Object[args.length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = args[i].evaluate(frame);
+        }
+        final var receiver = target.evaluate(frame);
+        if (receiver == null) {
+          return functions.callMethod(null, name, Arrays.asList(values));
+        }
+        return site.invoke(receiver, values);
+      };
+    }
+    if (args.length == 0 && name.equals("size")) {
+      return frame -> {
+        final var value = target.evaluate(frame);
+        if (value == null) {
+          return functions.callMethod(null, name, new ArrayList<>());
+        }
+        return Utilities.sizeOf(value);
+      };
+    }
+    if (args.length != 1) {
+      return null;
+    }
+    final var arg = args[0];
+    return switch (name) {
+      case "startsWith" ->
+          frame -> {
+            final var value = arg.evaluate(frame);
+            final var receiver = target.evaluate(frame);
+            if (receiver instanceof String str && value instanceof String prefix) {
+              return str.startsWith(prefix);
+            }
+            return functions.callMethod(receiver, name, single(value));
+          };
+      case "endsWith" ->
+          frame -> {
+            final var value = arg.evaluate(frame);
+            final var receiver = target.evaluate(frame);
+            if (receiver instanceof String str && value instanceof String suffix) {
+              return str.endsWith(suffix);
+            }
+            return functions.callMethod(receiver, name, single(value));
+          };
+      case "contains" ->
+          frame -> {
+            final var value = arg.evaluate(frame);
+            final var receiver = target.evaluate(frame);
+            if (receiver instanceof String str && value instanceof String substr) {
+              return str.contains(substr);
+            }
+            return functions.callMethod(receiver, name, single(value));
+          };
+      default -> null;
+    };
+  }
+
+  private static List<Object> single(final Object value) {
+    final var values = new ArrayList<>(1);
+    values.add(value);
+    return values;
+  }
+
+  // Chained filter and map macros feeding another macro are fused into a single pass over the
+  // source list, so that no intermediate lists are built and the final macro can stop early. A
+  // fused chain never evaluates the stages for the elements after the one that decides the
+  // result, so only stages that cannot fail are fused: the interpreter applies every stage to the
+  // whole list first and would report their errors.
+  private Node compileMacro(final Call expr) {
+    final var chain = new ArrayList<Call>();
+    var source = expr.target();
+    while (source instanceof Call inner && stage(inner)) {
+      chain.add(0, inner);
+      source = inner.target();
+    }
+    if (chain.isEmpty() || !wellFormed(expr) || !chain.stream().allMatch(this::infallible)) {
+      chain.clear();
+      source = expr.target();
+    }
+
+    final var target = compile(source);
+    final var function = expr.function();
+    final var stages = new Stage[chain.size()];
+    for (int i = 0; i < stages.length; i++) {
+      stages[i] = compileStage(chain.get(i));
+    }
+    // The source is checked by the first macro of the chain
+    final var first = chain.isEmpty() ? function : chain.get(0).function();
+
+    // Malformed macros fail at evaluation time, after the target, exactly like the interpreter
+    if (expr.args().isEmpty()) {
+      return failure(target, "Macro " + function + " requires arguments");
+    }
+    if (!(expr.args().get(0) instanceof Identifier identifier)) {
+      return failure(target, "First argument to macro " + function + " must be a variable name");
+    }
+    if (expr.args().size() < 2) {
+      return failure(target, "Macro " + function + " requires an expression argument");
+    }
+
+    final var name = identifier.name();
+    final int slot = slots++;
+    final var previous = declare(name, slot);
+    final var body = compile(expr.args().get(1));
+    restore(name, previous);
+
+    final Loop loop =
+        switch (function) {
+          case "map" ->
+              (frame, list) -> {
+                final var results =
+                    new ArrayList<>(stages.length == 0 ? Operators.sizeOf(list, 10) : 10);
+                for (final Object element : list) {
+                  final var item = advance(frame, stages, element);
+                  if (item != SKIP) {
+                    frame.set(slot, item);
+                    results.add(body.evaluate(frame));
+                  }
+                }
+                return results;
+              };
+          case "filter" ->
+              (frame, list) -> {
+                final var results = new ArrayList<>();
+                for (final Object element : list) {
+                  final var item = advance(frame, stages, element);
+                  if (item != SKIP) {
+                    frame.set(slot, item);
+                    if (Boolean.TRUE.equals(body.evaluate(frame))) {
+                      results.add(item);
+                    }
+                  }
+                }
+                return results;
+              };
+          case "all" ->
+              (frame, list) -> {
+                for (final Object element : list) {
+                  final var item = advance(frame, stages, element);
+                  if (item != SKIP) {
+                    frame.set(slot, item);
+                    if (!Boolean.TRUE.equals(body.evaluate(frame))) {
+                      return false;
+                    }
+                  }
+                }
+                return true;
+              };
+          case "exists" ->
+              (frame, list) -> {
+                for (final Object element : list) {
+                  final var item = advance(frame, stages, element);
+                  if (item != SKIP) {
+                    frame.set(slot, item);
+                    if (Boolean.TRUE.equals(body.evaluate(frame))) {
+                      return true;
+                    }
+                  }
+                }
+                return false;
+              };
+          case "existsOne" ->
+              (frame, list) -> {
+                var count = 0;
+                for (final Object element : list) {
+                  final var item = advance(frame, stages, element);
+                  if (item != SKIP) {
+                    frame.set(slot, item);
+                    if (Boolean.TRUE.equals(body.evaluate(frame))) {
+                      count++;
+                      if (count > 1) {
+                        return false;
+                      }
+                    }
+                  }
+                }
+                return count == 1;
+              };
+          default ->
+              (frame, list) -> {
+                throw new EvaluationError("Unknown macro function: " + function);
+              };
+        };
+
+    return frame -> {
+      final var list = Operators.iterable(target.evaluate(frame));
+      if (list == null) {
+        throw new EvaluationError("Macro " + first + " requires a list target");
+      }
+      return loop.run(frame, list);
+    };
+  }
+
+  // A filter or map macro whose result can be streamed into another macro
+  private static boolean stage(final Call expr) {
+    return expr.isMacro()
+        && expr.target() != null
+        && (expr.function().equals("filter") || expr.function().equals("map"))
+        && wellFormed(expr);
+  }
+
+  private static boolean wellFormed(final Call expr) {
+    return expr.args().size() >= 2 && expr.args().get(0) instanceof Identifier;
+  }
+
+  // Whether a filter or map stage can never raise an error, whatever the element it is applied to
+  private boolean infallible(final Call stage) {
+    final var variable = ((Identifier) stage.args().get(0)).name();
+    return stage.args().size() == 2 && infallible(stage.args().get(1), variable);
+  }
+
+  // Whether evaluating an expression can never raise an error: it is made of literals and bound
+  // variables, combined by operators that accept any operand or whose operand types are proven
+  private boolean infallible(final Expression expr, final String variable) {
+    if (expr instanceof Literal) {
+      return true;
+    } else if (expr instanceof Identifier identifier) {
+      return identifier.name().equals(variable) || locals.containsKey(identifier.name());
+    } else if (expr instanceof ListExpression list) {
+      return list.elements().stream().allMatch(element -> infallible(element, variable));
+    } else if (expr instanceof MapExpression map) {
+      return map.entries().stream()
+          .allMatch(
+              entry -> infallible(entry.key(), variable) && infallible(entry.value(), variable));
+    } else if (expr instanceof Conditional conditional) {
+      return infallible(conditional.condition(), variable)
+          && infallible(conditional.then(), variable)
+          && infallible(conditional.otherwise(), variable);
+    } else if (expr instanceof Unary unary) {
+      return unary.op() == UnaryOp.NOT
+          && type(unary.operand()).kind() == Type.Kind.BOOL
+          && infallible(unary.operand(), variable);
+    } else if (expr instanceof Binary binary) {
+      if (!infallible(binary.left(), variable) || !infallible(binary.right(), variable)) {
+        return false;
+      }
+      return switch (binary.op()) {
+        case EQUAL, NOT_EQUAL, LOGICAL_AND, LOGICAL_OR -> true;
+        case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL ->
+            comparable(type(binary.left()), type(binary.right()));
+        default -> false;
+      };
+    }
+    return false;
+  }
+
+  // Whether values of two proven types can always be compared
+  private static boolean comparable(final Type left, final Type right) {
+    if (numeric(left) && numeric(right)) {
+      return true;
+    }
+    return left.kind() == right.kind()
+        && (left.kind() == Type.Kind.STRING || left.kind() == Type.Kind.BOOL);
+  }
+
+  private static boolean numeric(final Type type) {
+    return type.kind() == Type.Kind.INT
+        || type.kind() == Type.Kind.UINT
+        || type.kind() == Type.Kind.DOUBLE;
+  }
+
+  private Stage compileStage(final Call expr) {
+    final var name = ((Identifier) expr.args().get(0)).name();
+    final int slot = slots++;
+    final var previous = declare(name, slot);
+    final var body = compile(expr.args().get(1));
+    restore(name, previous);
+    if (expr.function().equals("map")) {
+      return (frame, item) -> {
+        frame.set(slot, item);
+        return body.evaluate(frame);
+      };
+    }
+    return (frame, item) -> {
+      frame.set(slot, item);
+      return Boolean.TRUE.equals(body.evaluate(frame)) ? item : SKIP;
+    };
+  }
+
+  // Passes an element of the source list through the fused stages, or returns SKIP if one of them
+  // filters it out
+  private static Object advance(final Frame frame, final Stage[] stages, final Object element) {
+    var item = element;
+    for (final Stage stage : stages) {
+      item = stage.apply(frame, item);
+      if (item == SKIP) {
+        return SKIP;
+      }
+    }
+    return item;
+  }
+
+  private static Node failure(final Node target, final String message) {
+    return frame -> {
+      target.evaluate(frame);
+      throw new EvaluationError(message);
+    };
+  }
+
+  /** A fused filter or map macro, transforming one element at a time. */
+  @FunctionalInterface
+  private interface Stage {
+    Object apply(final Frame frame, final Object item);
+  }
+
+  /** The body of a compiled macro, run once the target has been checked to be iterable. */
+  @FunctionalInterface
+  private interface Loop {
+    Object run(final Frame frame, final Iterable<?> list);
+  }
+
+  @Override
+  public Node visitList(final ListExpression expr) {
+    final var elements = compile(expr.elements());
+    return frame -> {
+      final var result = new ArrayList<>(elements.length);
+      for (final Node element : elements) {
+        result.add(element.evaluate(frame));
+      }
+      return result;
+    };
+  }
+
+  @Override
+  public Node visitMap(final MapExpression expr) {
+    final var size = expr.entries().size();
+    final var keys = new Node[size];
+    final var values = new Node[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = compile(expr.entries().get(i).key());
+      values[i] = compile(expr.entries().get(i).value());
+    }
+    return frame -> {
+      final var map = new HashMap<>();
+      for (int i = 0; i < size; i++) {
+        final var key = keys[i].evaluate(frame);
+        final var value = values[i].evaluate(frame);
+        map.put(key, value);
+      }
+      return map;
+    };
+  }
+
+  @Override
+  public Node visitStruct(final Struct expr) {
+    final var size = expr.fields().size();
+    final var names = new String[size];
+    final var values = new Node[size];
+    for (int i = 0; i < size; i++) {
+      names[i] = expr.fields().get(i).field();
+      values[i] = compile(expr.fields().get(i).value());
+    }
+    return frame -> {
+      final var map = new HashMap<>();
+      for (int i = 0; i < size; i++) {
+        map.put(names[i], values[i].evaluate(frame));
+      }
+      return map;
+    };
+  }
+
+  @Override
+  public Node visitComprehension(final Comprehension expr) {
+    final var range = compile(expr.range());
+    final var initializer = compile(expr.initializer());
+
+    final int variable = slots++;
+    final int accumulator = slots++;
+    final var shadowedVariable = declare(expr.variable(), variable);
+    final var shadowedAccumulator = declare(expr.accumulator(), accumulator);
+    final var condition = compile(expr.condition());
+    final var step = compile(expr.step());
+    restore(expr.variable(), shadowedVariable);
+    // The iteration variable is unbound when the range is empty, so only the accumulator is
+    // visible to the result expression
+    final var result = compile(expr.result());
+    restore(expr.accumulator(), shadowedAccumulator);
+
+    return frame -> {
+      final var list = Operators.iterable(range.evaluate(frame));
+      if (list == null) {
+        throw new EvaluationError("Comprehension range must be a list");
+      }
+
+      frame.set(accumulator, initializer.evaluate(frame));
+      for (final Object item : list) {
+        frame.set(variable, item);
+        if (!Boolean.TRUE.equals(condition.evaluate(frame))) {
+          continue;
+        }
+        frame.set(accumulator, step.evaluate(frame));
+      }
+      return result.evaluate(frame);
+    };
+  }
+
+  @Override
+  public Node visitUnary(final Unary expr) {
+    final var operand = compile(expr.operand());
+    final var type = type(expr.operand());
+    if (expr.op() == UnaryOp.NOT && type.kind() == Type.Kind.BOOL) {
+      final var bool = bool(operand);
+      return (Node.OfBoolean) frame -> !bool.evaluateBoolean(frame);
+    }
+    if (expr.op() == UnaryOp.NEGATE && type.integral()) {
+      final var integer = integer(operand);
+      return (Node.OfLong) frame -> -integer.evaluateLong(frame);
+    }
+    if (expr.op() == UnaryOp.NEGATE && type.kind() == Type.Kind.DOUBLE) {
+      final var real = real(operand, type);
+      return (Node.OfDouble) frame -> -real.evaluateDouble(frame);
+    }
+    return switch (expr.op()) {
+      case NOT -> frame -> Operators.not(operand.evaluate(frame));
+      case NEGATE -> frame -> Operators.negate(operand.evaluate(frame));
+    };
+  }
+
+  @Override
+  public Node visitBinary(final Binary expr) {
+    if (adaptive && (expr.op() == BinaryOp.LOGICAL_AND || expr.op() == BinaryOp.LOGICAL_OR)) {
+      final var junction = junction(expr);
+      if (junction != null) {
+        return junction;
+      }
+    }
+
+    final var fused = compareArithmetic(expr);
+    if (fused != null) {
+      return fused;
+    }
+
+    final var left = compile(expr.left());
+    final var right = compile(expr.right());
+
+    final var typed = specialize(expr.op(), left, type(expr.left()), right, type(expr.right()));
+    if (typed != null) {
+      return typed;
+    }
+
+    // Specialize comparisons against literal operands
+    if (expr.right() instanceof Literal literal) {
+      final var bound = compareConstant(expr.op(), left, literal.value());
+      if (bound != null) {
+        return bound;
+      }
+    }
+
+    return switch (expr.op()) {
+      case LOGICAL_AND -> {
+        final var first = truth(left, type(expr.left()));
+        final var second = truth(right, type(expr.right()));
+        yield (Node.OfBoolean)
+            frame -> first.evaluateBoolean(frame) && second.evaluateBoolean(frame);
+      }
+      case LOGICAL_OR -> {
+        final var first = truth(left, type(expr.left()));
+        final var second = truth(right, type(expr.right()));
+        yield (Node.OfBoolean)
+            frame -> first.evaluateBoolean(frame) || second.evaluateBoolean(frame);
+      }
+      case ADD -> frame -> Operators.add(left.evaluate(frame), right.evaluate(frame));
+      case SUBTRACT -> frame -> Operators.subtract(left.evaluate(frame), right.evaluate(frame));
+      case MULTIPLY -> frame -> Operators.multiply(left.evaluate(frame), right.evaluate(frame));
+      case DIVIDE -> frame -> Operators.divide(left.evaluate(frame), right.evaluate(frame));
+      case MODULO -> frame -> Operators.modulo(left.evaluate(frame), right.evaluate(frame));
+      case EQUAL -> frame -> Operators.equals(left.evaluate(frame), right.evaluate(frame));
+      case NOT_EQUAL -> frame -> !Operators.equals(left.evaluate(frame), right.evaluate(frame));
+      case LESS -> frame -> Operators.compare(left.evaluate(frame), right.evaluate(frame)) < 0;
+      case LESS_EQUAL ->
+          frame -> Operators.compare(left.evaluate(frame), right.evaluate(frame)) <= 0;
+      case GREATER -> frame -> Operators.compare(left.evaluate(frame), right.evaluate(frame)) > 0;
+      case GREATER_EQUAL ->
+          frame -> Operators.compare(left.evaluate(frame), right.evaluate(frame)) >= 0;
+      case IN -> membership(left, expr.right(), right);
+    };
+  }
+
+  // Compiles a chain of the same logical operator into a junction, provided that it has operands
+  // that may swap places: those that cannot fail, between which the others stay in source order
+  private Node junction(final Binary expr) {
+    final var operands = new ArrayList<Expression>();
+    flatten(expr, expr.op(), operands);
+    final var fixed = new boolean[operands.size()];
+    final var guarded = new LinkedHashSet<String>();
+    var movable = false;
+    for (int i = 0; i < fixed.length; i++) {
+      final var variables = new HashSet<String>();
+      fixed[i] = !reorderable(operands.get(i), variables);
+      if (!fixed[i]) {
+        guarded.addAll(variables);
+        movable |= i > 0 && !fixed[i - 1];
+      }
+    }
+    if (!movable) {
+      return null;
+    }
+    final var nodes = new Node.OfBoolean[operands.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = truth(compile(operands.get(i)), type(operands.get(i)));
+    }
+    final var names = guarded.toArray(String[]::new);
+    final var slots = Arrays.stream(names).mapToInt(this::global).toArray();
+    return new Junction(nodes, fixed, slots, names, expr.op() == BinaryOp.LOGICAL_OR);
+  }
+
+  // Whether a junction operand cannot fail, provided that the free variables it compares for
+  // equality, which are collected into variables, are available
+  private boolean reorderable(final Expression expr, final Set<String> variables) {
+    if (expr instanceof Binary binary) {
+      final var left = binary.left();
+      final var right = binary.right();
+      switch (binary.op()) {
+        case LOGICAL_AND, LOGICAL_OR -> {
+          return reorderable(left, variables) && reorderable(right, variables);
+        }
+        case EQUAL, NOT_EQUAL -> {
+          // Numeric operands are unboxed, which fails when a variable holds another type
+          if (!type(left).numeric() || !type(right).numeric()) {
+            return compared(left, variables) && compared(right, variables);
+          }
+        }
+        default -> {}
+      }
+    }
+    return infallible(expr, null);
+  }
+
+  private boolean compared(final Expression expr, final Set<String> variables) {
+    if (expr instanceof Identifier identifier && !locals.containsKey(identifier.name())) {
+      variables.add(identifier.name());
+      return true;
+    }
+    return infallible(expr, null);
+  }
+
+  private static void flatten(
+      final Expression expr, final BinaryOp op, final List<Expression> operands) {
+    if (expr instanceof Binary binary && binary.op() == op) {
+      flatten(binary.left(), op, operands);
+      flatten(binary.right(), op, operands);
+    } else {
+      operands.add(expr);
+    }
+  }
+
+  // Whether an expression only calls into the standard library, whose functions and builtin
+  // methods have no side effects, rather than into custom functions or Java methods
+  private boolean pure(final Expression expr) {
+    if (expr == null || expr instanceof Literal || expr instanceof Identifier) {
+      return true;
+    } else if (expr instanceof Call call) {
+      if (!standard
+          || call.target() != null
+              && !call.isMacro()
+              && !BUILTIN_METHODS.contains(call.function())) {
+        return false;
+      }
+      return pure(call.target()) && call.args().stream().allMatch(this::pure);
+    } else if (expr instanceof Select select) {
+      return pure(select.operand());
+    } else if (expr instanceof ListExpression list) {
+      return list.elements().stream().allMatch(this::pure);
+    } else if (expr instanceof MapExpression map) {
+      return map.entries().stream().allMatch(entry -> pure(entry.key()) && pure(entry.value()));
+    } else if (expr instanceof Struct struct) {
+      return struct.fields().stream().allMatch(field -> pure(field.value()));
+    } else if (expr instanceof Comprehension comprehension) {
+      return pure(comprehension.range())
+          && pure(comprehension.initializer())
+          && pure(comprehension.condition())
+          && pure(comprehension.step())
+          && pure(comprehension.result());
+    } else if (expr instanceof Unary unary) {
+      return pure(unary.operand());
+    } else if (expr instanceof Binary binary) {
+      return pure(binary.left()) && pure(binary.right());
+    } else if (expr instanceof Conditional conditional) {
+      return pure(conditional.condition())
+          && pure(conditional.then())
+          && pure(conditional.otherwise());
+    } else if (expr instanceof Index index) {
+      return pure(index.operand()) && pure(index.index());
+    }
+    return false;
+  }
+
+  private static Node membership(final Node left, final Expression range, final Node right) {
+    if (range instanceof Literal literal && literal.value() instanceof HashedList hashed) {
+      return (Node.OfBoolean) frame -> hashed.includes(left.evaluate(frame));
+    }
+    if (HashedList.RUNTIME_THRESHOLD == 0) {
+      return frame -> Operators.in(left.evaluate(frame), right.evaluate(frame));
+    }
+    // Large lists that are passed again on the next evaluation are indexed
+    final var site = new HashedList.Site();
+    return frame -> {
+      final var value = left.evaluate(frame);
+      final var list = right.evaluate(frame);
+      if (list instanceof List<?> elements && elements.size() >= HashedList.RUNTIME_THRESHOLD) {
+        return site.includes(elements, value);
+      }
+      return Operators.in(value, list);
+    };
+  }
+
+  // Ordering comparisons look only at the double value of numbers, so an arithmetic operand whose
+  // operands turn out to be numbers is computed without boxing its result
+  private Node compareArithmetic(final Binary expr) {
+    final var op = expr.op();
+    if (op != BinaryOp.LESS
+        && op != BinaryOp.LESS_EQUAL
+        && op != BinaryOp.GREATER
+        && op != BinaryOp.GREATER_EQUAL) {
+      return null;
+    }
+    // Proven operands are specialized from their types instead
+    if (type(expr.left()).numeric() && type(expr.right()).numeric()) {
+      return null;
+    }
+    if (arithmetic(expr.left())) {
+      final var inner = (Binary) expr.left();
+      final var a = compile(inner.left());
+      final var b = compile(inner.right());
+      final var other = compile(expr.right());
+      return compareArithmetic(op, inner.op(), a, b, other, false);
+    }
+    if (arithmetic(expr.right())) {
+      final var inner = (Binary) expr.right();
+      final var other = compile(expr.left());
+      final var a = compile(inner.left());
+      final var b = compile(inner.right());
+      return compareArithmetic(op, inner.op(), a, b, other, true);
+    }
+    return null;
+  }
+
+  private static boolean arithmetic(final Expression expr) {
+    if (expr instanceof Binary binary) {
+      return switch (binary.op()) {
+        case ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO -> true;
+        default -> false;
+      };
+    }
+    return false;
+  }
+
+  // Compares (a op b) with other, or other with (a op b) if flipped, in generic evaluation order
+  private static Node compareArithmetic(
+      final BinaryOp comparison,
+      final BinaryOp op,
+      final Node a,
+      final Node b,
+      final Node other,
+      final boolean flipped) {
+    return (Node.OfBoolean)
+        frame -> {
+          final var first = flipped ? other.evaluate(frame) : null;
+          final var x = a.evaluate(frame);
+          final var y = b.evaluate(frame);
+          if (x instanceof Number nx && y instanceof Number ny) {
+            final var value = Operators.real(op, nx, ny);
+            final var operand = flipped ? first : other.evaluate(frame);
+            if (operand instanceof Number number) {
+              final var order =
+                  flipped
+                      ? Double.compare(number.doubleValue(), value)
+                      : Double.compare(value, number.doubleValue());
+              return test(comparison, order);
+            }
+            return test(comparison, compare(Operators.arithmetic(op, x, y), operand, flipped));
+          }
+          final var result = Operators.arithmetic(op, x, y);
+          final var operand = flipped ? first : other.evaluate(frame);
+          return test(comparison, compare(result, operand, flipped));
+        };
+  }
+
+  private static int compare(final Object result, final Object operand, final boolean flipped) {
+    return flipped ? Operators.compare(operand, result) : Operators.compare(result, operand);
+  }
+
+  private static boolean test(final BinaryOp comparison, final int order) {
+    return switch (comparison) {
+      case LESS -> order < 0;
+      case LESS_EQUAL -> order <= 0;
+      case GREATER -> order > 0;
+      default -> order >= 0;
+    };
+  }
+
+  // Compiles operators whose operand types are proven to primitive nodes, or returns null
+  private static Node specialize(
+      final BinaryOp op, final Node left, final Type lt, final Node right, final Type rt) {
+    if (!lt.numeric() || !rt.numeric()) {
+      return null;
+    }
+    if (lt.integral() && rt.integral()) {
+      final var a = integer(left);
+      final var b = integer(right);
+      final Node node =
+          switch (op) {
+            case ADD -> (Node.OfLong) frame -> a.evaluateLong(frame) + b.evaluateLong(frame);
+            case SUBTRACT -> (Node.OfLong) frame -> a.evaluateLong(frame) - b.evaluateLong(frame);
+            case MULTIPLY -> (Node.OfLong) frame -> a.evaluateLong(frame) * b.evaluateLong(frame);
+            case MODULO ->
+                (Node.OfLong)
+                    frame -> {
+                      final var dividend = a.evaluateLong(frame);
+                      final var divisor = b.evaluateLong(frame);
+                      if (divisor == 0L) {
+                        throw new EvaluationError("Modulo by zero");
+                      }
+                      return dividend % divisor;
+                    };
+            case EQUAL -> (Node.OfBoolean) frame -> a.evaluateLong(frame) == b.evaluateLong(frame);
+            case NOT_EQUAL ->
+                (Node.OfBoolean) frame -> a.evaluateLong(frame) != b.evaluateLong(frame);
+            default -> null;
+          };
+      if (node != null) {
+        return node;
+      }
+    }
+
+    // Everything else is computed on doubles; comparisons always are, exactly like the generic path
+    final var a = real(left, lt);
+    final var b = real(right, rt);
+    return switch (op) {
+      case ADD -> (Node.OfDouble) frame -> a.evaluateDouble(frame) + b.evaluateDouble(frame);
+      case SUBTRACT -> (Node.OfDouble) frame -> a.evaluateDouble(frame) - b.evaluateDouble(frame);
+      case MULTIPLY -> (Node.OfDouble) frame -> a.evaluateDouble(frame) * b.evaluateDouble(frame);
+      case DIVIDE ->
+          (Node.OfDouble)
+              frame -> {
+                final var dividend = a.evaluateDouble(frame);
+                final var divisor = b.evaluateDouble(frame);
+                if (divisor == 0.0) {
+                  throw new EvaluationError("Division by zero");
+                }
+                return dividend / divisor;
+              };
+      case EQUAL -> (Node.OfBoolean) frame -> a.evaluateDouble(frame) == b.evaluateDouble(frame);
+      case NOT_EQUAL ->
+          (Node.OfBoolean) frame -> a.evaluateDouble(frame) != b.evaluateDouble(frame);
+      case LESS ->
+          (Node.OfBoolean)
+              frame -> Double.compare(a.evaluateDouble(frame), b.evaluateDouble(frame)) < 0;
+      case LESS_EQUAL ->
+          (Node.OfBoolean)
+              frame -> Double.compare(a.evaluateDouble(frame), b.evaluateDouble(frame)) <= 0;
+      case GREATER ->
+          (Node.OfBoolean)
+              frame -> Double.compare(a.evaluateDouble(frame), b.evaluateDouble(frame)) > 0;
+      case GREATER_EQUAL ->
+          (Node.OfBoolean)
+              frame -> Double.compare(a.evaluateDouble(frame), b.evaluateDouble(frame)) >= 0;
+      default -> null;
+    };
+  }
+
+  // A node coerced to a condition: only true counts as true
+  private static Node.OfBoolean truth(final Node node, final Type type) {
+    if (node instanceof Node.OfBoolean bool) {
+      return bool;
+    }
+    if (type.kind() == Type.Kind.BOOL) {
+      return node::evaluateBoolean;
+    }
+    return frame -> Boolean.TRUE.equals(node.evaluate(frame));
+  }
+
+  // A node proven to be a bool
+  private static Node.OfBoolean bool(final Node node) {
+    return node instanceof Node.OfBoolean bool ? bool : node::evaluateBoolean;
+  }
+
+  // A node proven to be an int
+  private static Node.OfLong integer(final Node node) {
+    return node instanceof Node.OfLong integer ? integer : node::evaluateLong;
+  }
+
+  // A node proven to be numeric, widened to a double
+  private static Node.OfDouble real(final Node node, final Type type) {
+    if (type.integral()) {
+      final var integer = integer(node);
+      return frame -> (double) integer.evaluateLong(frame);
+    }
+    return node instanceof Node.OfDouble real ? real : node::evaluateDouble;
+  }
+
+  // Comparisons against a constant skip the generic type dispatch for the common operand types
+  private static Node compareConstant(final BinaryOp op, final Node left, final Object constant) {
+    if (constant instanceof String str) {
+      return switch (op) {
+        case EQUAL ->
+            frame -> {
+              final var value = left.evaluate(frame);
+              return value instanceof String s ? s.equals(str) : Operators.equals(value, str);
+            };
+        case NOT_EQUAL ->
+            frame -> {
+              final var value = left.evaluate(frame);
+              return value instanceof String s ? !s.equals(str) : !Operators.equals(value, str);
+            };
+        default -> null;
+      };
+    }
+    if (constant instanceof Long number) {
+      final long bound = number;
+      return switch (op) {
+        case EQUAL ->
+            frame -> {
+              final var value = left.evaluate(frame);
+              return value instanceof Long l ? l == bound : Operators.equals(value, number);
+            };
+        case NOT_EQUAL ->
+            frame -> {
+              final var value = left.evaluate(frame);
+              return value instanceof Long l ? l != bound : !Operators.equals(value, number);
+            };
+        default -> compareNumber(op, left, number);
+      };
+    }
+    if (constant instanceof Double number) {
+      return compareNumber(op, left, number);
+    }
+    return null;
+  }
+
+  private static Node compareNumber(final BinaryOp op, final Node left, final Number number) {
+    final double bound = number.doubleValue();
+    return switch (op) {
+      case LESS ->
+          frame -> {
+            final var value = left.evaluate(frame);
+            return value instanceof Number n
+                ? Double.compare(n.doubleValue(), bound) < 0
+                : Operators.compare(value, number) < 0;
+          };
+      case LESS_EQUAL ->
+          frame -> {
+            final var value = left.evaluate(frame);
+            return value instanceof Number n
+                ? Double.compare(n.doubleValue(), bound) <= 0
+                : Operators.compare(value, number) <= 0;
+          };
+      case GREATER ->
+          frame -> {
+            final var value = left.evaluate(frame);
+            return value instanceof Number n
+                ? Double.compare(n.doubleValue(), bound) > 0
+                : Operators.compare(value, number) > 0;
+          };
+      case GREATER_EQUAL ->
+          frame -> {
+            final var value = left.evaluate(frame);
+            return value instanceof Number n
+                ? Double.compare(n.doubleValue(), bound) >= 0
+                : Operators.compare(value, number) >= 0;
+          };
+      default -> null;
+    };
+  }
+
+  @Override
+  public Node visitConditional(final Conditional expr) {
+    final var condition = truth(compile(expr.condition()), type(expr.condition()));
+    final var then = compile(expr.then());
+    final var otherwise = compile(expr.otherwise());
+    return frame ->
+        condition.evaluateBoolean(frame) ? then.evaluate(frame) : otherwise.evaluate(frame);
+  }
+
+  @Override
+  public Node visitIndex(final Index expr) {
+    final var operand = compile(expr.operand());
+    final var index = compile(expr.index());
+    return frame -> Operators.index(operand.evaluate(frame), index.evaluate(frame));
+  }
+}
@@ -0,0 +1,178 @@
+package com.libdbm.cel;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Declared types of the variables available to a CEL expression.
+ *
+ * <p>Declarations are written as a comma separated list of {@code name:type} pairs, for example
+ * {@code x:int, ratio:double, user:map<string, dyn>, tags:list<string>}. The supported types are
+ * {@code int}, {@code uint}, {@code double}, {@code bool}, {@code string}, {@code bytes}, {@code
+ * null}, {@code timestamp}, {@code duration}, {@code dyn}, {@code list<T>} and {@code map<K, V>}.
+ * Variables that are not declared have type {@code dyn}.
+ *
+ * <p>Programs compiled with declarations use the types to evaluate proven numeric and boolean
+ * expressions without boxing intermediate values. Declarations are a promise made by the caller:
+ * when a program runs on the compiled engine, a variable whose value does not have its declared
+ * type raises an {@link EvaluationError}. An {@code int} variable accepts {@link Long} and {@link
+ * Integer} values, and a {@code double} variable accepts {@link Double} and {@link Float} values.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * final Declarations declarations = Declarations.parse("price:double, quantity:int");
+ * final CEL cel = new CEL(null, Engine.COMPILED, declarations);
+ * final Program program = cel.compile("price * quantity > 100.0");
+ * }</pre>
+ */
+public final class Declarations {
+  private static final Declarations EMPTY = new Declarations(Map.of());
+
+  private final Map<String, Type> variables;
+
+  private Declarations(final Map<String, Type> variables) {
+    this.variables = variables;
+  }
+
+  /**
+   * Returns declarations that declare no variables.
+   *
+   * @return the empty declarations
+   */
+  public static Declarations empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Parses a comma separated list of variable declarations.
+   *
+   * @param declarations the declarations, for example {@code "x:int, user:map<string, dyn>"}
+   * @return the parsed declarations
+   * @throws IllegalArgumentException if the declarations are malformed or declare a variable twice
+   */
+  public static Declarations parse(final String declarations) {
+    final var reader = new Reader(declarations);
+    final var variables = new LinkedHashMap<String, Type>();
+    reader.skip();
+    while (!reader.done()) {
+      final var name = reader.identifier();
+      reader.expect(':');
+      final var type = reader.type();
+      if (variables.put(name, type) != null) {
+        throw new IllegalArgumentException("Variable " + name + " is declared more than once");
+      }
+      if (!reader.done()) {
+        reader.expect(',');
+      }
+    }
+    return new Declarations(Collections.unmodifiableMap(variables));
+  }
+
+  /**
+   * Returns the declared type of a variable.
+   *
+   * @param name the variable name
+   * @return the declared type, or dyn if the variable is not declared
+   */
+  Type type(final String name) {
+    return variables.getOrDefault(name, Type.DYN);
+  }
+
+  /**
+   * Returns the declarations in the same syntax accepted by {@link #parse}.
+   *
+   * @return the declarations as text
+   */
+  @Override
+  public String toString() {
+    final var builder = new StringBuilder();
+    for (final var entry : variables.entrySet()) {
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+      builder.append(entry.getKey()).append(':').append(entry.getValue());
+    }
+    return builder.toString();
+  }
+
+  /** A minimal recursive descent reader for the declaration syntax. */
+  private static final class Reader {
+    private final String text;
+    private int position;
+
+    Reader(final String text) {
+      this.text = text != null ? text : "";
+    }
+
+    boolean done() {
+      return position >= text.length();
+    }
+
+    // Skips whitespace
+    void skip() {
+      while (!done() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    void expect(final char ch) {
+      if (done() || text.charAt(position) != ch) {
+        throw new IllegalArgumentException(
+            "Expected '" + ch + "' at position " + position + " in declarations: " + text);
+      }
+      position++;
+      skip();
+    }
+
+    String identifier() {
+      final var start = position;
+      while (!done()
+          && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_')) {
+        position++;
+      }
+      if (start == position) {
+        throw new IllegalArgumentException(
+            "Expected a name at position " + position + " in declarations: " + text);
+      }
+      final var name = text.substring(start, position);
+      skip();
+      return name;
+    }
+
+    Type type() {
+      final var start = position;
+      final var name = identifier();
+      return switch (name) {
+        case "int" -> Type.INT;
+        case "uint" -> Type.UINT;
+        case "double" -> Type.DOUBLE;
+        case "bool" -> Type.BOOL;
+        case "string" -> Type.STRING;
+        case "bytes" -> Type.BYTES;
+        case "null" -> Type.NULL;
+        case "timestamp" -> Type.TIMESTAMP;
+        case "duration" -> Type.DURATION;
+        case "dyn" -> Type.DYN;
+        case "list" -> {
+          expect('<');
+          final var element = type();
+          expect('>');
+          yield Type.list(element);
+        }
+        case "map" -> {
+          expect('<');
+          final var key = type();
+          expect(',');
+          final var value = type();
+          expect('>');
+          yield Type.map(key, value);
+        }
+        default ->
+            throw new IllegalArgumentException(
+                "Unknown type " + name + " at position " + start + " in declarations: " + text);
+      };
+    }
+  }
+}
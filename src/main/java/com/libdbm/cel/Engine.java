@@ -0,0 +1,47 @@
+package com.libdbm.cel;
+
+/**
+ * Execution engines available for evaluating compiled {@link Program}s.
+ *
+ * <p>All engines implement the same CEL semantics and raise the same errors; they differ only in
+ * how much work is done up front when a program is compiled.
+ */
+public enum Engine {
+  /**
+   * Evaluates programs by walking the AST with the {@link Interpreter}.
+   *
+   * <p>Compilation is limited to parsing, which makes this engine the cheapest choice for
+   * expressions that are evaluated only a few times.
+   */
+  INTERPRETED,
+  /**
+   * Evaluates programs through a tree of pre-specialized closures produced by the {@link
+   * Compiler}.
+   *
+   * <p>Operators, constant operands, and standard function targets are resolved once when the
+   * program is compiled, removing the per-node visitor dispatch and operator switches from every
+   * evaluation. This engine is best suited to expressions that are evaluated many times.
+   */
+  COMPILED,
+  /**
+   * Starts evaluating programs with the {@link Interpreter} and promotes them to the compiled
+   * engine once they become hot.
+   *
+   * <p>Each program counts its evaluations and is compiled after 1000 of them (configurable with
+   * the {@code com.libdbm.cel.promotionThreshold} system property), so rarely used expressions
+   * never pay the compile cost while long-lived hot expressions get the compiled engine's speed.
+   */
+  TIERED,
+  /**
+   * Evaluates programs like {@link #COMPILED}, learning the best order of the operands of {@code
+   * &&} and {@code ||} from the inputs it sees.
+   *
+   * <p>Each chain of {@code &&} or {@code ||} samples the cost of its operands and how often each
+   * decides the result, and periodically reorders them so that cheap, decisive operands run first.
+   * Only operands that cannot fail are moved, such as equality tests of variables and literals;
+   * operands that may fail, like calls, keep their place, so errors are raised exactly as on the
+   * other engines. A costly list comparison written before a cheap equality test then stops running
+   * whenever the test alone decides the result.
+   */
+  ADAPTIVE
+}
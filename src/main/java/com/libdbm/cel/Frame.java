@@ -0,0 +1,198 @@
+package com.libdbm.cel;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Evaluation state for a single run of a compiled {@link Node} tree.
+ *
+ * <p>Every identifier in a compiled expression is resolved to an integer slot at compile time.
+ * Slots for free variables are loaded from the caller's {@link Activation} on first use and
+ * memoized for the rest of the evaluation; slots for macro and comprehension variables are assigned
+ * directly by their loops. Repeated subexpressions have slots too, holding their value once it has
+ * been computed; those proven to be ints or doubles keep their value unboxed. The caller's
+ * variables are only read, never modified.
+ *
+ * <p>A frame may be reset and reused for consecutive evaluations on the same thread.
+ */
+final class Frame {
+  private static final Object UNRESOLVED = new Object();
+  // Marks a slot whose value is held unboxed in the primitive slots
+  private static final Object PRIMITIVE = new Object();
+
+  private final Object[] slots;
+  // Allocated on first use, since most expressions have no unboxed slots
+  private long[] primitives;
+  private Activation activation;
+  private Map<String, ?> variables;
+
+  /**
+   * Constructs a frame over the given activation.
+   *
+   * @param activation the source of the variables visible to the expression
+   * @param size the number of slots required by the compiled expression
+   */
+  Frame(final Activation activation, final int size) {
+    this.slots = new Object[size];
+    reset(activation);
+  }
+
+  /**
+   * Prepares the frame for a new evaluation over the given activation.
+   *
+   * @param activation the source of the variables visible to the expression
+   * @return this frame
+   */
+  Frame reset(final Activation activation) {
+    this.activation = activation;
+    // Map-backed activations are read directly, saving a lookup per variable
+    this.variables = activation instanceof MapActivation map ? map.variables() : null;
+    Arrays.fill(slots, UNRESOLVED);
+    return this;
+  }
+
+  /**
+   * Prepares the frame for a new evaluation over the given variables.
+   *
+   * @param variables the variables visible to the expression
+   * @return this frame
+   */
+  Frame reset(final Map<String, ?> variables) {
+    this.activation = null;
+    this.variables = variables != null ? variables : Map.of();
+    Arrays.fill(slots, UNRESOLVED);
+    return this;
+  }
+
+  /**
+   * Returns the value of a free variable, loading it into its slot on first use.
+   *
+   * @param slot the slot assigned to the variable
+   * @param name the variable name
+   * @return the variable value
+   * @throws EvaluationError if the variable is not defined
+   */
+  Object global(final int slot, final String name) {
+    final var value = slots[slot];
+    if (value != UNRESOLVED) {
+      return value;
+    }
+    final Object resolved;
+    if (variables != null) {
+      resolved = variables.get(name);
+      if (resolved == null && !variables.containsKey(name)) {
+        throw new EvaluationError("Undefined variable: " + name);
+      }
+    } else {
+      if (!activation.contains(name)) {
+        throw new EvaluationError("Undefined variable: " + name);
+      }
+      resolved = activation.resolve(name);
+    }
+    slots[slot] = resolved;
+    return resolved;
+  }
+
+  /**
+   * Returns whether a free variable is defined.
+   *
+   * @param slot the slot assigned to the variable
+   * @param name the variable name
+   * @return true if the variable has a value
+   */
+  boolean defined(final int slot, final String name) {
+    if (slots[slot] != UNRESOLVED) {
+      return true;
+    }
+    return variables != null ? variables.containsKey(name) : activation.contains(name);
+  }
+
+  /**
+   * Returns whether a free variable can be read without failing or calling into an activation: it
+   * has been loaded already, or it is defined in a map of variables.
+   *
+   * @param slot the slot assigned to the variable
+   * @param name the variable name
+   * @return true if reading the variable has no effect
+   */
+  boolean available(final int slot, final String name) {
+    if (slots[slot] != UNRESOLVED) {
+      return true;
+    }
+    return variables != null && variables.containsKey(name);
+  }
+
+  /**
+   * Returns whether a slot holds a value for the current evaluation.
+   *
+   * @param slot the slot to check
+   * @return true once the slot has been loaded or assigned
+   */
+  boolean resolved(final int slot) {
+    return slots[slot] != UNRESOLVED;
+  }
+
+  /**
+   * Returns the value bound to a macro or comprehension variable.
+   *
+   * @param slot the slot assigned to the variable
+   * @return the bound value
+   */
+  Object get(final int slot) {
+    return slots[slot];
+  }
+
+  /**
+   * Binds a macro or comprehension variable.
+   *
+   * @param slot the slot assigned to the variable
+   * @param value the value to bind
+   */
+  void set(final int slot, final Object value) {
+    slots[slot] = value;
+  }
+
+  /**
+   * Returns the int value held unboxed in a slot.
+   *
+   * @param slot the slot, which must have been set with {@link #setLong}
+   * @return the value
+   */
+  long getLong(final int slot) {
+    return primitives[slot];
+  }
+
+  /**
+   * Holds an int value unboxed in a slot.
+   *
+   * @param slot the slot
+   * @param value the value
+   */
+  void setLong(final int slot, final long value) {
+    if (primitives == null) {
+      primitives = new long[slots.length];
+    }
+    primitives[slot] = value;
+    slots[slot] = PRIMITIVE;
+  }
+
+  /**
+   * Returns the double value held unboxed in a slot.
+   *
+   * @param slot the slot, which must have been set with {@link #setDouble}
+   * @return the value
+   */
+  double getDouble(final int slot) {
+    return Double.longBitsToDouble(primitives[slot]);
+  }
+
+  /**
+   * Holds a double value unboxed in a slot.
+   *
+   * @param slot the slot
+   * @param value the value
+   */
+  void setDouble(final int slot, final double value) {
+    setLong(slot, Double.doubleToRawLongBits(value));
+  }
+}
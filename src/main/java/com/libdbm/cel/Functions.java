@@ -1,6 +1,5 @@
 package com.libdbm.cel;
 
-import java.lang.reflect.Method;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -73,7 +72,7 @@ class EvaluationError extends RuntimeException {
  * functionality.
  */
 class StandardFunctions implements Functions {
-  private static boolean isAssignable(final Class<?> paramType, final Class<?> argType) {
+  static boolean isAssignable(final Class<?> paramType, final Class<?> argType) {
     if (paramType.isAssignableFrom(argType)) return true;
     // Handle primitive to wrapper compatibility
     if (paramType.isPrimitive()) {
@@ -223,55 +222,6 @@ class StandardFunctions implements Functions {
 
   private Object callJavaMethod(
       final Object target, final String name, final List<Object> parameters) {
-    try {
-      final var clazz = target.getClass();
-      final var args = parameters.toArray();
-      Method method = null;
-      search:
-      for (final var m : clazz.getMethods()) {
-        if (!m.getName().equals(name)) continue;
-        final var types = m.getParameterTypes();
-        if (types.length != args.length) continue;
-        for (int i = 0; i < types.length; i++) {
-          final Object a = args[i];
-          if (a == null) {
-            if (types[i].isPrimitive()) {
-              continue search;
-            }
-          } else if (!isAssignable(types[i], a.getClass())) {
-            continue search;
-          }
-        }
-        method = m;
-        break;
-      }
-
-      if (method == null) {
-        throw new IllegalArgumentException(
-            "No such method '"
-                + name
-                + "' on type "
-                + clazz.getName()
-                + " with "
-                + parameters.size()
-                + " argument(s)");
-      }
-      try {
-        method.setAccessible(true);
-        return method.invoke(target, args);
-      } catch (Throwable e) {
-        throw new EvaluationError(
-            "Invocation of method '"
-                + name
-                + "' on type "
-                + clazz.getName()
-                + " failed: "
-                + e.getMessage());
-      }
-    } catch (IllegalArgumentException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new EvaluationError("Invocation of method '" + name + "' failed: " + t.getMessage());
-    }
+    return JavaMethods.invoke(target, name, parameters);
   }
 }
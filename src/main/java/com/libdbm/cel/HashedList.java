@@ -0,0 +1,166 @@
+package com.libdbm.cel;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An unmodifiable list with a hash index answering the {@code in} operator in constant time.
+ *
+ * <p>Membership follows {@link Operators#equals}, so {@code 1 in [1.0]} holds as it does for a
+ * plain list. Numbers are indexed by their double value, which equal numbers always share, and the
+ * few numbers sharing a double value are then compared one by one. Strings, bools and null are
+ * indexed by themselves. Any other element, such as a nested list or map, is kept aside and
+ * compared linearly, as are values of types the index does not know.
+ */
+final class HashedList extends AbstractList<Object> implements RandomAccess {
+  /** The smallest literal list worth indexing; shorter lists are as fast to scan. */
+  static final int MIN_SIZE = 8;
+
+  /**
+   * The smallest runtime list that the {@code in} operator of a compiled program indexes, or zero
+   * to never index runtime lists.
+   */
+  static final int RUNTIME_THRESHOLD = Integer.getInteger("com.libdbm.cel.inIndexThreshold", 0);
+
+  private final List<?> elements;
+  // Numbers map to the list of numbers with the same double value, other keys to themselves
+  private final Map<Object, Object> keys;
+  private final List<Object> unhashed;
+
+  private HashedList(final List<?> elements) {
+    this.elements = elements;
+    this.keys = new HashMap<>();
+    this.unhashed = new ArrayList<>();
+    for (final Object element : elements) {
+      if (number(element)) {
+        @SuppressWarnings("unchecked")
+        final var same =
+            (List<Object>) keys.computeIfAbsent(key((Number) element), k -> new ArrayList<>(1));
+        same.add(element);
+      } else if (scalar(element)) {
+        keys.put(element, element);
+      } else {
+        unhashed.add(element);
+      }
+    }
+  }
+
+  /**
+   * Indexes a list. The list must not be modified afterwards.
+   *
+   * @param elements the elements of the list
+   * @return the indexed list
+   */
+  static HashedList of(final List<?> elements) {
+    return elements instanceof HashedList hashed ? hashed : new HashedList(elements);
+  }
+
+  /**
+   * Returns whether the list contains an element equal to the value, as {@code value in list}.
+   *
+   * @param value the value to look for
+   * @return whether the value is in the list
+   */
+  boolean includes(final Object value) {
+    if (number(value)) {
+      final var same = (List<?>) keys.get(key((Number) value));
+      if (same != null) {
+        for (final Object element : same) {
+          if (Operators.equals(element, value)) {
+            return true;
+          }
+        }
+      }
+    } else if (scalar(value)) {
+      if (keys.containsKey(value)) {
+        return true;
+      }
+    } else {
+      return Operators.containsInList(elements, value);
+    }
+    return !unhashed.isEmpty() && Operators.containsInList(unhashed, value);
+  }
+
+  @Override
+  public Object get(final int index) {
+    return elements.get(index);
+  }
+
+  @Override
+  public int size() {
+    return elements.size();
+  }
+
+  // Equal numbers of these types always have equal double values
+  private static boolean number(final Object value) {
+    return value instanceof Long
+        || value instanceof Integer
+        || value instanceof Double
+        || value instanceof Short
+        || value instanceof Byte
+        || value instanceof Float;
+  }
+
+  private static boolean scalar(final Object value) {
+    return value == null || value instanceof String || value instanceof Boolean;
+  }
+
+  private static Double key(final Number number) {
+    // Both zeros are equal numbers, so they share a key
+    return number.doubleValue() + 0.0;
+  }
+
+  /**
+   * Indexes the immutable runtime lists seen by one {@code in} operator once they are seen again.
+   *
+   * <p>Only lists that cannot change, such as those made by {@link List#of} or {@link
+   * List#copyOf}, are indexed; any other list is scanned linearly on every evaluation. An immutable
+   * list is scanned the first time it is seen. If the next evaluation passes the same instance, it
+   * is indexed and the index is reused for as long as that instance keeps being passed. The site
+   * only holds the list and its index weakly, so a list the caller drops can be collected; the
+   * index is then built again if the list is seen again.
+   */
+  static final class Site {
+    // The classes of the JDK's immutable lists, some of which may be the same
+    private static final Set<Class<?>> IMMUTABLE =
+        Set.copyOf(
+            List.of(List.of().getClass(), List.of(1).getClass(), List.of(1, 2, 3).getClass()));
+
+    private volatile WeakReference<List<?>> seen;
+    private volatile WeakReference<HashedList> indexed;
+
+    /**
+     * Returns whether the list contains an element equal to the value.
+     *
+     * @param list the list
+     * @param value the value to look for
+     * @return whether the value is in the list
+     */
+    boolean includes(final List<?> list, final Object value) {
+      if (!IMMUTABLE.contains(list.getClass())) {
+        return Operators.containsInList(list, value);
+      }
+      final var index = get(indexed);
+      if (index != null && index.elements == list) {
+        return index.includes(value);
+      }
+      if (get(seen) != list) {
+        seen = new WeakReference<>(list);
+        return Operators.containsInList(list, value);
+      }
+      final var created = new HashedList(list);
+      indexed = new WeakReference<>(created);
+      return created.includes(value);
+    }
+
+    private static <T> T get(final WeakReference<T> reference) {
+      return reference != null ? reference.get() : null;
+    }
+  }
+}
@@ -5,27 +5,99 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Interpreter for evaluating CEL expressions.
  *
  * <p>Implements the Visitor pattern to traverse and evaluate the AST produced by the parser.
  * Supports all CEL operations including macros, type conversions, and complex expressions.
+ *
+ * <p>The variables supplied by the caller are only ever read. Macro and comprehension variables
+ * are bound in a separate scope layered over them, so the caller's map is never modified and does
+ * not need to be copied before evaluation. Variables supplied through a lazy {@link Activation} are
+ * resolved the first time they are referenced and memoized for the lifetime of the interpreter.
+ *
+ * <p>The {@code map}, {@code filter}, {@code all} and {@code exists} macros can run their bodies
+ * in parallel on the common fork/join pool when their target is a list with at least a given
+ * number of elements. Parallel macros return the same results and report the same errors as
+ * sequential ones, but the functions called from their bodies must be safe to call from several
+ * threads. The threshold is set per interpreter, or defaults to the {@code
+ * com.libdbm.cel.parallelMacroThreshold} system property; a threshold of zero, the default, keeps
+ * every macro sequential.
  */
 public class Interpreter implements Expression.Visitor<Object> {
-  private final Map<String, Object> variables;
+  static final int PARALLEL_THRESHOLD =
+      Integer.getInteger("com.libdbm.cel.parallelMacroThreshold", 0);
+
+  // The fewest elements each parallel task evaluates
+  private static final int PARALLEL_CHUNK = 64;
+
+  private final Activation activation;
+  private final Map<String, Object> resolved;
+  private final Map<String, Object> bindings;
   private final Functions functions;
+  private final int parallelThreshold;
+  // Whether the memo of resolved variables is shared with interpreters on other threads
+  private final boolean shared;
 
   /**
    * Constructs an interpreter with the specified variables and functions.
    *
-   * @param variables A map of variable names to their values. If null, an empty map is used.
+   * @param variables A map of variable names to their values. If null, an empty map is used. The
+   *     map is read directly and is never modified by the interpreter.
    * @param functions An instance of Functions to handle function calls. If null, StandardFunctions
    *     is used.
    */
   public Interpreter(final Map<String, Object> variables, final Functions functions) {
-    this.variables = variables != null ? variables : new HashMap<>();
+    this(Activation.of(variables), functions, PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Creates an interpreter that resolves variables on demand from an activation.
+   *
+   * @param activation The source of variable values. If null, no variables are defined.
+   * @param functions An instance of Functions to handle function calls. If null, StandardFunctions
+   *     is used.
+   * @return The interpreter
+   */
+  public static Interpreter of(final Activation activation, final Functions functions) {
+    return new Interpreter(activation, functions, PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Constructs an interpreter that may run the bodies of macros over large lists in parallel.
+   *
+   * @param activation The source of variable values. If null, no variables are defined.
+   * @param functions An instance of Functions to handle function calls. If null, StandardFunctions
+   *     is used. Its functions must be safe to call concurrently if macros run in parallel.
+   * @param parallelThreshold The smallest list size for which macros run in parallel, or zero to
+   *     always run them sequentially
+   */
+  public Interpreter(
+      final Activation activation, final Functions functions, final int parallelThreshold) {
+    if (parallelThreshold < 0) {
+      throw new IllegalArgumentException("Parallel threshold must not be negative");
+    }
+    this.activation = activation != null ? activation : Activation.of(null);
+    // Map lookups are as cheap as the memo itself, so only lazy activations are memoized
+    this.resolved = this.activation instanceof MapActivation ? null : new HashMap<>();
+    this.bindings = new HashMap<>();
     this.functions = functions != null ? functions : new StandardFunctions();
+    this.parallelThreshold = parallelThreshold;
+    this.shared = false;
+  }
+
+  // An interpreter for one task of a parallel macro, with its own copy of the scoped bindings
+  private Interpreter(final Interpreter parent) {
+    this.activation = parent.activation;
+    this.resolved = parent.resolved;
+    this.bindings = new HashMap<>(parent.bindings);
+    this.functions = parent.functions;
+    this.parallelThreshold = parent.parallelThreshold;
+    this.shared = true;
   }
 
   /**
@@ -49,6 +121,62 @@ public class Interpreter implements Expression.Visitor<Object> {
     return expr.accept(this);
   }
 
+  // Returns whether a variable is visible, either as a scoped binding or a caller variable
+  private boolean defined(final String name) {
+    if (!bindings.isEmpty() && bindings.containsKey(name)) {
+      return true;
+    }
+    if (resolved != null) {
+      if (shared) {
+        synchronized (resolved) {
+          return resolved.containsKey(name) || activation.contains(name);
+        }
+      }
+      if (resolved.containsKey(name)) {
+        return true;
+      }
+    }
+    return activation.contains(name);
+  }
+
+  private Object lookup(final String name) {
+    if (!bindings.isEmpty() && bindings.containsKey(name)) {
+      return bindings.get(name);
+    }
+    if (resolved == null) {
+      return activation.resolve(name);
+    }
+    if (shared) {
+      // Tasks of a parallel macro resolve each variable once between them
+      synchronized (resolved) {
+        return memoized(name);
+      }
+    }
+    return memoized(name);
+  }
+
+  private Object memoized(final String name) {
+    if (resolved.containsKey(name)) {
+      return resolved.get(name);
+    }
+    final var value = activation.resolve(name);
+    resolved.put(name, value);
+    return value;
+  }
+
+  // Binds a scoped variable, returning a handle that restores the shadowed binding
+  private Runnable bind(final String name) {
+    final var saved = bindings.get(name);
+    final var had = bindings.containsKey(name);
+    return () -> {
+      if (had) {
+        bindings.put(name, saved);
+      } else {
+        bindings.remove(name);
+      }
+    };
+  }
+
   @Override
   public Object visitLiteral(final Literal expr) {
     // In CEL, byte literals are just strings marked as bytes, they are not base64 encoded
@@ -57,34 +185,26 @@ public class Interpreter implements Expression.Visitor<Object> {
 
   @Override
   public Object visitIdentifier(final Identifier expr) {
-    if (!variables.containsKey(expr.name())) {
+    if (!defined(expr.name())) {
       throw new EvaluationError("Undefined variable: " + expr.name());
     }
-    return variables.get(expr.name());
+    return lookup(expr.name());
   }
 
   @Override
   public Object visitSelect(final Select expr) {
-    final var target = expr.operand() != null ? evaluate(expr.operand()) : variables;
-
-    if (target == null) {
+    if (expr.operand() == null) {
+      // A leading dot selects from the variables themselves
       if (expr.isTest()) {
-        return false;
+        return defined(expr.field());
       }
-      throw new EvaluationError("Cannot select field " + expr.field() + " from null");
-    }
-
-    if (target instanceof Map<?, ?> map) {
-      if (expr.isTest()) {
-        return map.containsKey(expr.field());
-      }
-      if (!map.containsKey(expr.field())) {
+      if (!defined(expr.field())) {
         throw new EvaluationError("Field " + expr.field() + " not found");
       }
-      return map.get(expr.field());
+      return lookup(expr.field());
     }
 
-    throw new EvaluationError("Cannot select field from non-map type");
+    return Operators.select(evaluate(expr.operand()), expr.field(), expr.isTest());
   }
 
   @Override
@@ -133,20 +253,23 @@ public class Interpreter implements Expression.Visitor<Object> {
 
   private Object evaluateMacro(
       final Object target, final String function, final String name, final Expression expr) {
-    if (!(target instanceof List<?> list)) {
+    final var list = Operators.iterable(target);
+    if (list == null) {
       throw new EvaluationError("Macro " + function + " requires a list target");
     }
+    if (parallel(list, function)) {
+      return new ParallelMacro((List<?>) list, function, name, expr).evaluate();
+    }
 
-    // Save the current value of the variable (if any)
-    final var saved = variables.get(name);
-    final var had = variables.containsKey(name);
+    // Save the current binding of the variable (if any)
+    final var restore = bind(name);
 
     try {
       switch (function) {
         case "map" -> {
           final var results = new ArrayList<>();
           for (final Object item : list) {
-            variables.put(name, item);
+            bindings.put(name, item);
             results.add(evaluate(expr));
           }
           return results;
@@ -154,7 +277,7 @@ public class Interpreter implements Expression.Visitor<Object> {
         case "filter" -> {
           final var results = new ArrayList<>();
           for (final Object item : list) {
-            variables.put(name, item);
+            bindings.put(name, item);
             final Object condition = evaluate(expr);
             if (Boolean.TRUE.equals(condition)) {
               results.add(item);
@@ -164,7 +287,7 @@ public class Interpreter implements Expression.Visitor<Object> {
         }
         case "all" -> {
           for (final Object item : list) {
-            variables.put(name, item);
+            bindings.put(name, item);
             final var condition = evaluate(expr);
             if (!Boolean.TRUE.equals(condition)) {
               return false;
@@ -174,7 +297,7 @@ public class Interpreter implements Expression.Visitor<Object> {
         }
         case "exists" -> {
           for (final Object item : list) {
-            variables.put(name, item);
+            bindings.put(name, item);
             final var condition = evaluate(expr);
             if (Boolean.TRUE.equals(condition)) {
               return true;
@@ -185,7 +308,7 @@ public class Interpreter implements Expression.Visitor<Object> {
         case "existsOne" -> {
           var count = 0;
           for (final Object item : list) {
-            variables.put(name, item);
+            bindings.put(name, item);
             final var condition = evaluate(expr);
             if (Boolean.TRUE.equals(condition)) {
               count++;
@@ -199,11 +322,147 @@ public class Interpreter implements Expression.Visitor<Object> {
         default -> throw new EvaluationError("Unknown macro function: " + function);
       }
     } finally {
-      // Restore the original value of the variable
-      if (had) {
-        variables.put(name, saved);
-      } else {
-        variables.remove(name);
+      // Restore the original binding of the variable
+      restore.run();
+    }
+  }
+
+  private boolean parallel(final Iterable<?> list, final String function) {
+    return parallelThreshold > 0
+        && list instanceof RandomAccess
+        && list instanceof List<?> elements
+        && elements.size() >= parallelThreshold
+        && !function.equals("existsOne");
+  }
+
+  /**
+   * A macro whose body is evaluated for disjoint ranges of a list by separate tasks.
+   *
+   * <p>The result of a macro is decided by the first element, in list order, whose evaluation
+   * fails or, for {@code all} and {@code exists}, whose condition settles the result. Tasks record
+   * the first such element they find and skip every element after the earliest one recorded so far,
+   * so the macro reports the same result or error as a sequential evaluation.
+   */
+  private final class ParallelMacro {
+    private final List<?> list;
+    private final String function;
+    private final String name;
+    private final Expression expr;
+    private final Object[] values;
+    private final boolean[] kept;
+    // The position of the earliest element known to decide the result, or the list size if none
+    private volatile int decided;
+    private RuntimeException error;
+
+    ParallelMacro(
+        final List<?> list, final String function, final String name, final Expression expr) {
+      this.list = list;
+      this.function = function;
+      this.name = name;
+      this.expr = expr;
+      this.values = function.equals("map") ? new Object[list.size()] : null;
+      this.kept = function.equals("filter") ? new boolean[list.size()] : null;
+      this.decided = list.size();
+    }
+
+    Object evaluate() {
+      final var size = list.size();
+      final var chunk =
+          Math.max(PARALLEL_CHUNK, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+      ForkJoinPool.commonPool().invoke(new Task(0, size, chunk));
+      if (error != null) {
+        throw error;
+      }
+      switch (function) {
+        case "map" -> {
+          final var results = new ArrayList<>(size);
+          for (final Object value : values) {
+            results.add(value);
+          }
+          return results;
+        }
+        case "filter" -> {
+          final var results = new ArrayList<>();
+          for (int i = 0; i < size; i++) {
+            if (kept[i]) {
+              results.add(list.get(i));
+            }
+          }
+          return results;
+        }
+        case "all" -> {
+          return decided == size;
+        }
+        case "exists" -> {
+          return decided < size;
+        }
+        default -> throw new EvaluationError("Unknown macro function: " + function);
+      }
+    }
+
+    private synchronized void decide(final int index, final RuntimeException failure) {
+      if (index < decided) {
+        decided = index;
+        error = failure;
+      }
+    }
+
+    private void run(final int from, final int to) {
+      final var worker = new Interpreter(Interpreter.this);
+      for (int i = from; i < to && i < decided; i++) {
+        final var item = list.get(i);
+        worker.bindings.put(name, item);
+        final Object result;
+        try {
+          result = worker.evaluate(expr);
+        } catch (final RuntimeException e) {
+          decide(i, e);
+          return;
+        }
+        switch (function) {
+          case "map" -> values[i] = result;
+          case "filter" -> kept[i] = Boolean.TRUE.equals(result);
+          case "all" -> {
+            if (!Boolean.TRUE.equals(result)) {
+              decide(i, null);
+              return;
+            }
+          }
+          case "exists" -> {
+            if (Boolean.TRUE.equals(result)) {
+              decide(i, null);
+              return;
+            }
+          }
+          default -> throw new EvaluationError("Unknown macro function: " + function);
+        }
+      }
+    }
+
+    /** Splits a range of the list in halves until it is small enough to evaluate directly. */
+    @SuppressWarnings("serial") // Tasks only live in the fork-join pool and are never serialized
+    private final class Task extends RecursiveAction {
+      private final int from;
+      private final int to;
+      private final int chunk;
+
+      Task(final int from, final int to, final int chunk) {
+        this.from = from;
+        this.to = to;
+        this.chunk = chunk;
+      }
+
+      @Override
+      protected void compute() {
+        if (from >= decided) {
+          return;
+        }
+        if (to - from <= chunk) {
+          run(from, to);
+          return;
+        }
+        final int middle = (from + to) >>> 1;
+        invokeAll(new Task(from, middle, chunk), new Task(middle, to, chunk));
       }
     }
   }
@@ -240,21 +499,20 @@ public class Interpreter implements Expression.Visitor<Object> {
   @Override
   public Object visitComprehension(final Comprehension expr) {
     final var range = evaluate(expr.range());
-    if (!(range instanceof List<?> list)) {
+    final var list = Operators.iterable(range);
+    if (list == null) {
       throw new EvaluationError("Comprehension range must be a list");
     }
 
-    final var iterator = variables.get(expr.variable());
-    final var saved = variables.get(expr.accumulator());
-    final var hadIterator = variables.containsKey(expr.variable());
-    final var hadAccumulator = variables.containsKey(expr.accumulator());
+    final var restoreIterator = bind(expr.variable());
+    final var restoreAccumulator = bind(expr.accumulator());
 
     try {
       var accumulator = evaluate(expr.initializer());
-      variables.put(expr.accumulator(), accumulator);
+      bindings.put(expr.accumulator(), accumulator);
 
       for (final Object item : list) {
-        variables.put(expr.variable(), item);
+        bindings.put(expr.variable(), item);
 
         final var condition = evaluate(expr.condition());
         if (!Boolean.TRUE.equals(condition)) {
@@ -262,21 +520,13 @@ public class Interpreter implements Expression.Visitor<Object> {
         }
 
         accumulator = evaluate(expr.step());
-        variables.put(expr.accumulator(), accumulator);
+        bindings.put(expr.accumulator(), accumulator);
       }
 
       return evaluate(expr.result());
     } finally {
-      if (hadIterator) {
-        variables.put(expr.variable(), iterator);
-      } else {
-        variables.remove(expr.variable());
-      }
-      if (hadAccumulator) {
-        variables.put(expr.accumulator(), saved);
-      } else {
-        variables.remove(expr.accumulator());
-      }
+      restoreIterator.run();
+      restoreAccumulator.run();
     }
   }
 
@@ -285,24 +535,8 @@ public class Interpreter implements Expression.Visitor<Object> {
     final var operand = evaluate(expr.operand());
 
     return switch (expr.op()) {
-      case NOT -> {
-        if (!(operand instanceof Boolean)) {
-          throw new EvaluationError("NOT operator requires boolean operand");
-        }
-        yield !(Boolean) operand;
-      }
-      case NEGATE -> {
-        if (operand instanceof Long l) {
-          yield -l;
-        } else if (operand instanceof Integer i) {
-          yield -(long) i;
-        } else if (operand instanceof Double d) {
-          yield -d;
-        } else if (operand instanceof Float f) {
-          yield -(double) f;
-        }
-        throw new EvaluationError("Negation requires numeric operand");
-      }
+      case NOT -> Operators.not(operand);
+      case NEGATE -> Operators.negate(operand);
     };
   }
 
@@ -327,99 +561,18 @@ public class Interpreter implements Expression.Visitor<Object> {
     final var right = evaluate(expr.right());
 
     return switch (expr.op()) {
-      case ADD -> {
-        // String concatenation
-        if (left instanceof String || right instanceof String) {
-          yield String.valueOf(left) + right;
-        }
-        // List concatenation
-        if (left instanceof List<?> l && right instanceof List<?> r) {
-          final var result = new ArrayList<Object>(l);
-          result.addAll(r);
-          yield result;
-        }
-        // Numeric addition
-        if (left instanceof Number && right instanceof Number) {
-          yield addNumbers((Number) left, (Number) right);
-        }
-        throw new EvaluationError("Invalid operands for addition");
-      }
-      case SUBTRACT -> {
-        if (left instanceof Number && right instanceof Number) {
-          yield subtractNumbers((Number) left, (Number) right);
-        }
-        throw new EvaluationError("Subtraction requires numeric operands");
-      }
-      case MULTIPLY -> {
-        if (left instanceof Number && right instanceof Number) {
-          yield multiplyNumbers((Number) left, (Number) right);
-        }
-        // String repetition
-        if (left instanceof String str && right instanceof Number num) {
-          yield str.repeat(num.intValue());
-        }
-        // List repetition
-        if (left instanceof List<?> list && right instanceof Number num) {
-          final var result = new ArrayList<>();
-          final var count = num.intValue();
-          for (int i = 0; i < count; i++) {
-            result.addAll(list);
-          }
-          yield result;
-        }
-        throw new EvaluationError("Invalid operands for multiplication");
-      }
-      case DIVIDE -> {
-        if (left instanceof Number && right instanceof Number) {
-          final var value = ((Number) right).doubleValue();
-          if (value == 0.0) {
-            throw new EvaluationError("Division by zero");
-          }
-          // Division always returns double
-          yield ((Number) left).doubleValue() / value;
-        }
-        throw new EvaluationError("Division requires numeric operands");
-      }
-      case MODULO -> {
-        if (left instanceof Long l && right instanceof Long r) {
-          if (r == 0L) {
-            throw new EvaluationError("Modulo by zero");
-          }
-          yield l % r;
-        }
-        if (left instanceof Integer l && right instanceof Integer r) {
-          if (r == 0) {
-            throw new EvaluationError("Modulo by zero");
-          }
-          yield (long) (l % r);
-        }
-        // Try to convert to long
-        if (left instanceof Number && right instanceof Number) {
-          final var l = ((Number) left).longValue();
-          final var r = ((Number) right).longValue();
-          if (r == 0L) {
-            throw new EvaluationError("Modulo by zero");
-          }
-          yield l % r;
-        }
-        throw new EvaluationError("Modulo requires integer operands");
-      }
-      case EQUAL -> equals(left, right);
-      case NOT_EQUAL -> !equals(left, right);
-      case LESS -> compare(left, right) < 0;
-      case LESS_EQUAL -> compare(left, right) <= 0;
-      case GREATER -> compare(left, right) > 0;
-      case GREATER_EQUAL -> compare(left, right) >= 0;
-      case IN -> {
-        if (right instanceof List<?> list) {
-          yield containsInList(list, left);
-        } else if (right instanceof Map<?, ?> map) {
-          yield map.containsKey(left);
-        } else if (right instanceof String str && left instanceof String substr) {
-          yield str.contains(substr);
-        }
-        throw new EvaluationError("IN operator requires list, map, or string on right side");
-      }
+      case ADD -> Operators.add(left, right);
+      case SUBTRACT -> Operators.subtract(left, right);
+      case MULTIPLY -> Operators.multiply(left, right);
+      case DIVIDE -> Operators.divide(left, right);
+      case MODULO -> Operators.modulo(left, right);
+      case EQUAL -> Operators.equals(left, right);
+      case NOT_EQUAL -> !Operators.equals(left, right);
+      case LESS -> Operators.compare(left, right) < 0;
+      case LESS_EQUAL -> Operators.compare(left, right) <= 0;
+      case GREATER -> Operators.compare(left, right) > 0;
+      case GREATER_EQUAL -> Operators.compare(left, right) >= 0;
+      case IN -> Operators.in(left, right);
       default -> throw new EvaluationError("Unknown binary operator: " + expr.op());
     };
   }
@@ -439,163 +592,6 @@ public class Interpreter implements Expression.Visitor<Object> {
     final var operand = evaluate(expr.operand());
     final var index = evaluate(expr.index());
 
-    if (operand == null) {
-      throw new EvaluationError("Cannot index null value");
-    }
-
-    if (operand instanceof List<?> list) {
-      if (!(index instanceof Number)) {
-        throw new EvaluationError("List index must be an integer");
-      }
-      final int idx = ((Number) index).intValue();
-      if (idx < 0 || idx >= list.size()) {
-        throw new EvaluationError("List index out of bounds: " + idx);
-      }
-      return list.get(idx);
-    } else if (operand instanceof Map<?, ?> map) {
-      if (!map.containsKey(index)) {
-        throw new EvaluationError("Map key not found: " + index);
-      }
-      return map.get(index);
-    } else if (operand instanceof String str) {
-      if (!(index instanceof Number)) {
-        throw new EvaluationError("String index must be an integer");
-      }
-      final int idx = ((Number) index).intValue();
-      if (idx < 0 || idx >= str.length()) {
-        throw new EvaluationError("String index out of bounds: " + idx);
-      }
-      return String.valueOf(str.charAt(idx));
-    }
-
-    throw new EvaluationError("Cannot index type: " + operand.getClass().getName());
-  }
-
-  // Helper methods for numeric operations
-  private Number addNumbers(final Number left, final Number right) {
-    if (left instanceof Double
-        || right instanceof Double
-        || left instanceof Float
-        || right instanceof Float) {
-      return left.doubleValue() + right.doubleValue();
-    }
-    return left.longValue() + right.longValue();
-  }
-
-  private Number subtractNumbers(final Number left, final Number right) {
-    if (left instanceof Double
-        || right instanceof Double
-        || left instanceof Float
-        || right instanceof Float) {
-      return left.doubleValue() - right.doubleValue();
-    }
-    return left.longValue() - right.longValue();
-  }
-
-  private Number multiplyNumbers(final Number left, final Number right) {
-    if (left instanceof Double
-        || right instanceof Double
-        || left instanceof Float
-        || right instanceof Float) {
-      return left.doubleValue() * right.doubleValue();
-    }
-    return left.longValue() * right.longValue();
-  }
-
-  // Deep equality checking
-  private boolean equals(final Object left, final Object right) {
-    if (left == null || right == null) {
-      return left == right;
-    }
-
-    if (left instanceof List<?> l && right instanceof List<?> r) {
-      if (l.size() != r.size()) {
-        return false;
-      }
-      for (int i = 0; i < l.size(); i++) {
-        if (!equals(l.get(i), r.get(i))) {
-          return false;
-        }
-      }
-      return true;
-    }
-
-    if (left instanceof Map<?, ?> l && right instanceof Map<?, ?> r) {
-      if (l.size() != r.size()) {
-        return false;
-      }
-      for (final var key : l.keySet()) {
-        if (!r.containsKey(key)) {
-          return false;
-        }
-        if (!equals(l.get(key), r.get(key))) {
-          return false;
-        }
-      }
-      return true;
-    }
-
-    // Numeric equality with type coercion
-    if (left instanceof Number ln && right instanceof Number rn) {
-      // If either is floating point, compare as doubles
-      if (ln instanceof Double
-          || ln instanceof Float
-          || rn instanceof Double
-          || rn instanceof Float) {
-        return ln.doubleValue() == rn.doubleValue();
-      }
-      // Otherwise compare as longs
-      return ln.longValue() == rn.longValue();
-    }
-
-    return left.equals(right);
-  }
-
-  // Helper for list contains with deep equality
-  private boolean containsInList(final List<?> list, final Object value) {
-    for (final var item : list) {
-      if (equals(item, value)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  // Lexicographic comparison
-  private int compare(final Object left, final Object right) {
-    if (left == null && right == null) {
-      return 0;
-    }
-    if (left == null) {
-      return -1;
-    }
-    if (right == null) {
-      return 1;
-    }
-
-    if (left instanceof Number && right instanceof Number) {
-      final var l = ((Number) left).doubleValue();
-      final var r = ((Number) right).doubleValue();
-      return Double.compare(l, r);
-    } else if (left instanceof String && right instanceof String) {
-      return ((String) left).compareTo((String) right);
-    } else if (left instanceof Boolean && right instanceof Boolean) {
-      return Boolean.compare((Boolean) left, (Boolean) right);
-    } else if (left instanceof List<?> l && right instanceof List<?> r) {
-      final int size = Math.min(l.size(), r.size());
-      for (var i = 0; i < size; i++) {
-        final var cmp = compare(l.get(i), r.get(i));
-        if (cmp != 0) {
-          return cmp;
-        }
-      }
-      return Integer.compare(l.size(), r.size());
-    }
-
-    throw new EvaluationError(
-        "Cannot compare types: "
-            + left.getClass().getName()
-            + " and "
-            + right.getClass().getName());
+    return Operators.index(operand, index);
   }
 }
@@ -0,0 +1,161 @@
+package com.libdbm.cel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selection of fields from Java objects that are not maps.
+ *
+ * <p>A field {@code name} of an object is read from, in order of preference, a record component
+ * named {@code name}, a public {@code getName()} or boolean {@code isName()} getter, or a public
+ * field named {@code name}. Accessors are resolved once per class and field name and invoked
+ * through {@link MethodHandle}s, so that selecting a field costs about as much as calling the
+ * getter.
+ *
+ * <p>Only application classes expose fields. Classes of the Java platform, such as strings,
+ * numbers and collections, have none, so selecting from them fails as it does for any other
+ * non-map value.
+ */
+final class JavaFields {
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+  private static final ClassValue<Map<String, Optional<Accessor>>> CACHE =
+      new ClassValue<>() {
+        @Override
+        protected Map<String, Optional<Accessor>> computeValue(final Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  private JavaFields() {}
+
+  /**
+   * Returns whether objects of a class may have fields.
+   *
+   * @param type the class of the object
+   * @return true for application classes, false for arrays and classes of the Java platform
+   */
+  static boolean selectable(final Class<?> type) {
+    return !type.isArray() && type.getModule() != Object.class.getModule();
+  }
+
+  /**
+   * Returns the accessor of a field, resolving and caching it on first use.
+   *
+   * @param type the class of the object, which must be {@link #selectable}
+   * @param field the field name
+   * @return the accessor, or null if the class has no such field
+   */
+  static Accessor resolve(final Class<?> type, final String field) {
+    return CACHE
+        .get(type)
+        .computeIfAbsent(field, name -> Optional.ofNullable(find(type, name)))
+        .orElse(null);
+  }
+
+  private static Accessor find(final Class<?> type, final String field) {
+    if (type.isRecord()) {
+      for (final var component : type.getRecordComponents()) {
+        if (component.getName().equals(field)) {
+          return accessor(type, field, component.getAccessor());
+        }
+      }
+    }
+    if (!field.isEmpty()) {
+      final var suffix = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+      final var getter = getter(type, "get" + suffix);
+      if (getter != null) {
+        return accessor(type, field, getter);
+      }
+      final var predicate = getter(type, "is" + suffix);
+      if (predicate != null
+          && (predicate.getReturnType() == boolean.class
+              || predicate.getReturnType() == Boolean.class)) {
+        return accessor(type, field, predicate);
+      }
+    }
+    try {
+      final Field member = type.getField(field);
+      if (!Modifier.isStatic(member.getModifiers())) {
+        return accessor(type, field, member);
+      }
+    } catch (final NoSuchFieldException e) {
+      // Not a public field either
+    }
+    return null;
+  }
+
+  // Methods inherited from Object, such as getClass(), are not accessors: they would hand
+  // reflection objects to expressions
+  private static Method getter(final Class<?> type, final String name) {
+    try {
+      final var method = type.getMethod(name);
+      if (Modifier.isStatic(method.getModifiers())
+          || method.getReturnType() == void.class
+          || method.getDeclaringClass() == Object.class) {
+        return null;
+      }
+      return method;
+    } catch (final NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Accessor accessor(final Class<?> type, final String field, final Method method) {
+    try {
+      final var handle = LOOKUP.unreflect(JavaMethods.accessible(type, method));
+      return new Accessor(type, field, handle.asType(GETTER));
+    } catch (final IllegalAccessException | RuntimeException e) {
+      // An accessor that cannot be invoked is treated as missing
+      return null;
+    }
+  }
+
+  private static Accessor accessor(final Class<?> type, final String field, final Field member) {
+    try {
+      if (!Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+        member.setAccessible(true);
+      }
+      return new Accessor(type, field, LOOKUP.unreflectGetter(member).asType(GETTER));
+    } catch (final IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A resolved field of one class.
+   *
+   * @param type the class of the objects the accessor reads from
+   * @param field the field name
+   * @param handle a handle of type (Object)Object reading the field
+   */
+  record Accessor(Class<?> type, String field, MethodHandle handle) {
+    /**
+     * Reads the field of an object.
+     *
+     * @param target an instance of {@link #type()}
+     * @return the value of the field, boxed if primitive
+     * @throws EvaluationError if the accessor fails
+     */
+    Object get(final Object target) {
+      try {
+        return (Object) handle.invokeExact(target);
+      } catch (final Throwable e) {
+        throw new EvaluationError(
+            "Selection of field '"
+                + field
+                + "' on type "
+                + type.getName()
+                + " failed: "
+                + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package com.libdbm.cel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatch of CEL method calls to public methods of Java objects.
+ *
+ * <p>Resolving a method by reflection is expensive, so each resolution is cached per receiver
+ * class, keyed by method name and the classes of the arguments. Resolved methods are invoked
+ * through {@link MethodHandle}s adapted to a generic signature, which avoids the overhead of
+ * {@link Method#invoke} and its argument array for small arities. Methods declared by non-public
+ * classes, such as the JDK's immutable collections, are invoked through the public interface or
+ * superclass that declares them.
+ */
+final class JavaMethods {
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final ClassValue<Map<Signature, Invoker>> CACHE =
+      new ClassValue<>() {
+        @Override
+        protected Map<Signature, Invoker> computeValue(final Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  private JavaMethods() {}
+
+  /**
+   * Invokes a public method of a Java object.
+   *
+   * @param target the receiver, which must not be null
+   * @param name the method name
+   * @param args the arguments
+   * @return the result of the method, boxed if primitive, or null for void methods
+   * @throws IllegalArgumentException if no public method accepts the arguments
+   * @throws EvaluationError if the method cannot be invoked or fails
+   */
+  static Object invoke(final Object target, final String name, final List<Object> args) {
+    final var values = args.toArray();
+    return resolve(target.getClass(), name, values).invoke(target, values);
+  }
+
+  /**
+   * Returns the invoker for a method, resolving and caching it on first use.
+   *
+   * @param type the receiver class
+   * @param name the method name
+   * @param args the arguments, whose classes select the overload
+   * @return the invoker
+   * @throws IllegalArgumentException if no public method accepts the arguments
+   */
+  static Invoker resolve(final Class<?> type, final String name, final Object[] args) {
+    final var signature = new Signature(name, classes(args));
+    final var cache = CACHE.get(type);
+    final var cached = cache.get(signature);
+    if (cached != null) {
+      return cached;
+    }
+    final var invoker = find(type, name, args);
+    cache.putIfAbsent(signature, invoker);
+    return invoker;
+  }
+
+  private static Class<?>[] classes(final Object[] args) {
+    final var classes = new Class<?>[args.length];
+    for (int i = 0; i < args.length; i++) {
+      classes[i] = args[i] != null ? args[i].getClass() : null;
+    }
+    return classes;
+  }
+
+  private static Invoker find(final Class<?> type, final String name, final Object[] args) {
+    search:
+    for (final var method : type.getMethods()) {
+      if (!method.getName().equals(name)) continue;
+      final var types = method.getParameterTypes();
+      if (types.length != args.length) continue;
+      for (int i = 0; i < types.length; i++) {
+        final Object arg = args[i];
+        if (arg == null) {
+          if (types[i].isPrimitive()) {
+            continue search;
+          }
+        } else if (!StandardFunctions.isAssignable(types[i], arg.getClass())) {
+          continue search;
+        }
+      }
+      return new Invoker(type, method, handle(type, method));
+    }
+    throw new IllegalArgumentException(
+        "No such method '"
+            + name
+            + "' on type "
+            + type.getName()
+            + " with "
+            + args.length
+            + " argument(s)");
+  }
+
+  // Returns a handle of type (Object, Object...)Object for the method, or null if the method is not
+  // accessible, in which case invoking it reports the access failure
+  private static MethodHandle handle(final Class<?> type, final Method method) {
+    MethodHandle handle;
+    try {
+      handle = LOOKUP.unreflect(accessible(type, method)).asFixedArity();
+    } catch (final IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+    if (Modifier.isStatic(method.getModifiers())) {
+      handle = MethodHandles.dropArguments(handle, 0, Object.class);
+    }
+    final var arity = method.getParameterCount();
+    if (arity <= Invoker.SPREAD_ARITY) {
+      return handle.asType(MethodType.genericMethodType(arity + 1));
+    }
+    return handle
+        .asSpreader(Object[].class, arity)
+        .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+  }
+
+  // Finds the same method on a public class or interface when its declaring class is not public
+  static Method accessible(final Class<?> type, final Method method) {
+    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+      return method;
+    }
+    final var pending = new ArrayDeque<Class<?>>();
+    final var seen = new HashSet<Class<?>>();
+    pending.add(type);
+    while (!pending.isEmpty()) {
+      final var candidate = pending.poll();
+      if (!seen.add(candidate)) continue;
+      if (Modifier.isPublic(candidate.getModifiers()) && exported(candidate)) {
+        try {
+          return candidate.getMethod(method.getName(), method.getParameterTypes());
+        } catch (final NoSuchMethodException e) {
+          // Not declared by this supertype; keep searching
+        }
+      }
+      if (candidate.getSuperclass() != null) {
+        pending.add(candidate.getSuperclass());
+      }
+      pending.addAll(Arrays.asList(candidate.getInterfaces()));
+    }
+    // No public declaration exists, so the method can only be reached reflectively
+    method.setAccessible(true);
+    return method;
+  }
+
+  private static boolean exported(final Class<?> type) {
+    return type.getModule().isExported(type.getPackageName());
+  }
+
+  /**
+   * The resolved target of a method call for one receiver class and argument classes.
+   *
+   * @param type the receiver class
+   * @param method the resolved method
+   * @param handle a handle of type (Object, Object...)Object, or (Object, Object[])Object for more
+   *     than {@link #SPREAD_ARITY} parameters; null if the method is not accessible
+   */
+  record Invoker(Class<?> type, Method method, MethodHandle handle) {
+    /** The largest arity invoked without an argument array. */
+    static final int SPREAD_ARITY = 3;
+
+    /**
+     * Invokes the method.
+     *
+     * @param target the receiver
+     * @param args the arguments, matching the classes the invoker was resolved for
+     * @return the result of the method
+     * @throws EvaluationError if the method cannot be invoked or fails
+     */
+    Object invoke(final Object target, final Object[] args) {
+      try {
+        if (handle == null) {
+          // Reproduce the access failure through reflection
+          method.setAccessible(true);
+          return method.invoke(target, args);
+        }
+        return switch (args.length) {
+          case 0 -> (Object) handle.invokeExact(target);
+          case 1 -> (Object) handle.invokeExact(target, args[0]);
+          case 2 -> (Object) handle.invokeExact(target, args[0], args[1]);
+          case 3 -> (Object) handle.invokeExact(target, args[0], args[1], args[2]);
+          default -> (Object) handle.invokeExact(target, args);
+        };
+      } catch (final Throwable e) {
+        final var cause = e instanceof InvocationTargetException ? e.getCause() : e;
+        throw new EvaluationError(
+            "Invocation of method '"
+                + method.getName()
+                + "' on type "
+                + type.getName()
+                + " failed: "
+                + cause.getMessage());
+      }
+    }
+  }
+
+  /** Identifies an overload by method name and the runtime classes of the arguments. */
+  private record Signature(String name, Class<?>[] classes) {
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Signature signature
+          && name.equals(signature.name)
+          && Arrays.equals(classes, signature.classes);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() * 31 + Arrays.hashCode(classes);
+    }
+  }
+
+  /**
+   * A polymorphic inline cache for one method call site of a compiled expression.
+   *
+   * <p>The site remembers the invokers for the last few receiver and argument classes it has seen,
+   * so that repeated calls on the same kinds of objects skip the shared cache entirely. Once more
+   * than {@link #LIMIT} shapes have been seen, the site is megamorphic and always consults the
+   * shared cache.
+   */
+  static final class CallSite {
+    /** The maximum number of shapes cached by a single call site. */
+    static final int LIMIT = 4;
+
+    private final String name;
+    private volatile Entry[] entries = new Entry[0];
+
+    CallSite(final String name) {
+      this.name = name;
+    }
+
+    /**
+     * Invokes the method for a receiver.
+     *
+     * @param target the receiver, which must not be null
+     * @param args the arguments
+     * @return the result of the method
+     */
+    Object invoke(final Object target, final Object[] args) {
+      final var type = target.getClass();
+      final var cached = entries;
+      for (final Entry entry : cached) {
+        if (entry.type == type && entry.matches(args)) {
+          return entry.invoker.invoke(target, args);
+        }
+      }
+      final var invoker = resolve(type, name, args);
+      if (cached.length < LIMIT) {
+        // Racing updates may drop an entry, which only costs another shared lookup later
+        final var updated = Arrays.copyOf(cached, cached.length + 1);
+        updated[cached.length] = new Entry(type, classes(args), invoker);
+        entries = updated;
+      }
+      return invoker.invoke(target, args);
+    }
+
+    /** A receiver and argument shape seen by the call site, with its resolved invoker. */
+    private record Entry(Class<?> type, Class<?>[] classes, Invoker invoker) {
+      // Exact argument classes are required, since other classes may select another overload
+      boolean matches(final Object[] args) {
+        if (args.length != classes.length) {
+          return false;
+        }
+        for (int i = 0; i < args.length; i++) {
+          final var arg = args[i];
+          if ((arg != null ? arg.getClass() : null) != classes[i]) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.libdbm.cel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A chain of {@code &&} or {@code ||} operands compiled for the {@link Engine#ADAPTIVE} engine,
+ * evaluated in an order learned from the operands' cost and selectivity.
+ *
+ * <p>Only operands that cannot fail and have no side effects are moved. The others are fixed: they
+ * keep their place in source order, and the movable operands between two of them only swap places
+ * with each other. An evaluation therefore reaches a fixed operand exactly when it would in source
+ * order, and raises the same errors as the other engines. Movable operands may compare free
+ * variables for equality; they are only reordered while those variables can be read without
+ * failing or calling into a lazy activation, and are evaluated in source order otherwise.
+ *
+ * <p>Every 32nd evaluation is a sample: it evaluates all movable operands up to the first fixed
+ * operand that is reached, timing each one and counting how often it decides the result. Every
+ * {@link #PERIOD} evaluations the movable operands are sorted by their expected cost per decision,
+ * the mean time of an operand divided by the fraction of samples it decided, so that cheap operands
+ * that usually decide the result run first. The counters are then halved, letting the order follow
+ * inputs whose distribution drifts.
+ *
+ * <p>Junctions are shared by all threads evaluating a program. The counters are updated without
+ * synchronization, so concurrent samples may be lost; this only affects the quality of the order.
+ */
+final class Junction implements Node.OfBoolean {
+  /**
+   * Number of evaluations between two reorderings. Can be tuned with the {@code
+   * com.libdbm.cel.adaptivePeriod} system property.
+   */
+  static final int PERIOD =
+      Math.max(1, Integer.getInteger("com.libdbm.cel.adaptivePeriod", 1024));
+
+  // One evaluation in this many is a sample; a power of two
+  private static final int SAMPLE = 32;
+
+  private final Node.OfBoolean[] operands;
+  private final boolean[] fixed;
+  // Movable operands only swap places with operands of the same group
+  private final int[] groups;
+  private final int[] slots;
+  private final String[] names;
+  private final boolean decisive;
+  private final long[] samples;
+  private final long[] decisions;
+  private final long[] nanos;
+  private volatile int[] order;
+  private int evaluations;
+
+  /**
+   * Creates a junction of operands.
+   *
+   * @param operands the operands, in source order
+   * @param fixed whether each operand may fail or have side effects, and must keep its place
+   * @param slots the slots of the free variables that the movable operands read
+   * @param names the names of those variables
+   * @param decisive the value that decides the result: false for {@code &&}, true for {@code ||}
+   */
+  Junction(
+      final Node.OfBoolean[] operands,
+      final boolean[] fixed,
+      final int[] slots,
+      final String[] names,
+      final boolean decisive) {
+    this.operands = operands;
+    this.fixed = fixed;
+    this.slots = slots;
+    this.names = names;
+    this.decisive = decisive;
+    this.groups = new int[operands.length];
+    var group = 0;
+    for (int i = 0; i < operands.length; i++) {
+      // A fixed operand is a group of its own, between the movable operands around it
+      if (fixed[i]) {
+        groups[i] = ++group;
+        group++;
+      } else {
+        groups[i] = group;
+      }
+    }
+    this.samples = new long[operands.length];
+    this.decisions = new long[operands.length];
+    this.nanos = new long[operands.length];
+    final var order = new int[operands.length];
+    Arrays.setAll(order, i -> i);
+    this.order = order;
+  }
+
+  /**
+   * Returns the order in which the operands are currently evaluated.
+   *
+   * @return the indexes of the operands in source order, first evaluated first
+   */
+  int[] order() {
+    return order.clone();
+  }
+
+  @Override
+  public boolean evaluateBoolean(final Frame frame) {
+    if (!available(frame)) {
+      for (final Node.OfBoolean operand : operands) {
+        if (operand.evaluateBoolean(frame) == decisive) {
+          return decisive;
+        }
+      }
+      return !decisive;
+    }
+    final var count = ++evaluations;
+    if (count % PERIOD == 0) {
+      reorder();
+    }
+    if ((count & (SAMPLE - 1)) == 0) {
+      return sample(frame);
+    }
+    for (final int index : order) {
+      if (operands[index].evaluateBoolean(frame) == decisive) {
+        return decisive;
+      }
+    }
+    return !decisive;
+  }
+
+  // Whether the movable operands cannot fail: every variable they read is available
+  private boolean available(final Frame frame) {
+    for (int i = 0; i < slots.length; i++) {
+      if (!frame.available(slots[i], names[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Evaluates every movable operand before the first fixed operand that is reached, recording its
+  // cost and whether it decided the result
+  private boolean sample(final Frame frame) {
+    var decided = false;
+    for (final int index : order) {
+      if (fixed[index]) {
+        if (decided || operands[index].evaluateBoolean(frame) == decisive) {
+          return decisive;
+        }
+        continue;
+      }
+      final var started = System.nanoTime();
+      if (operands[index].evaluateBoolean(frame) == decisive) {
+        decisions[index]++;
+        decided = true;
+      }
+      nanos[index] += System.nanoTime() - started;
+      samples[index]++;
+    }
+    return decided ? decisive : !decisive;
+  }
+
+  private void reorder() {
+    final var ranks = new double[operands.length];
+    for (int i = 0; i < ranks.length; i++) {
+      final var cost = (double) nanos[i] / Math.max(1L, samples[i]);
+      // Smoothed so that an operand that never decided still ranks by its cost
+      final var selectivity = (decisions[i] + 1.0) / (samples[i] + 2.0);
+      ranks[i] = cost / selectivity;
+      samples[i] /= 2;
+      decisions[i] /= 2;
+      nanos[i] /= 2;
+    }
+    final var sorted = Arrays.stream(order).boxed().toArray(Integer[]::new);
+    Arrays.sort(
+        sorted,
+        Comparator.<Integer>comparingInt(i -> groups[i]).thenComparingDouble(i -> ranks[i]));
+    order = Arrays.stream(sorted).mapToInt(Integer::intValue).toArray();
+  }
+}
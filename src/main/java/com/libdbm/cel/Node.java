@@ -0,0 +1,93 @@
+package com.libdbm.cel;
+
+/**
+ * A compiled expression node produced by the {@link Compiler}.
+ *
+ * <p>Each node is a closure that has already resolved its operator, operand shapes, and function
+ * targets, so evaluating it only performs the work that depends on the variables in the frame.
+ *
+ * <p>Nodes whose type has been proven by the {@link Checker} can also be evaluated to unboxed
+ * primitives. The specialized {@link OfLong}, {@link OfDouble} and {@link OfBoolean} nodes compute
+ * their result without allocating wrappers; any other node unboxes its result, raising an error if
+ * the value does not have the expected type.
+ */
+@FunctionalInterface
+interface Node {
+  /**
+   * Evaluates this node against the given frame.
+   *
+   * @param frame the variables visible to the expression
+   * @return the result of the evaluation
+   * @throws EvaluationError if evaluation fails
+   */
+  Object evaluate(final Frame frame);
+
+  /**
+   * Evaluates this node to an integer.
+   *
+   * @param frame the variables visible to the expression
+   * @return the result of the evaluation
+   * @throws EvaluationError if evaluation fails or the result is not an int
+   */
+  default long evaluateLong(final Frame frame) {
+    return Operators.unboxLong(evaluate(frame));
+  }
+
+  /**
+   * Evaluates this node to a double.
+   *
+   * @param frame the variables visible to the expression
+   * @return the result of the evaluation
+   * @throws EvaluationError if evaluation fails or the result is not a double
+   */
+  default double evaluateDouble(final Frame frame) {
+    return Operators.unboxDouble(evaluate(frame));
+  }
+
+  /**
+   * Evaluates this node to a boolean.
+   *
+   * @param frame the variables visible to the expression
+   * @return the result of the evaluation
+   * @throws EvaluationError if evaluation fails or the result is not a bool
+   */
+  default boolean evaluateBoolean(final Frame frame) {
+    return Operators.unboxBoolean(evaluate(frame));
+  }
+
+  /** A node proven to produce an int, computed without boxing. */
+  @FunctionalInterface
+  interface OfLong extends Node {
+    @Override
+    long evaluateLong(final Frame frame);
+
+    @Override
+    default Object evaluate(final Frame frame) {
+      return evaluateLong(frame);
+    }
+  }
+
+  /** A node proven to produce a double, computed without boxing. */
+  @FunctionalInterface
+  interface OfDouble extends Node {
+    @Override
+    double evaluateDouble(final Frame frame);
+
+    @Override
+    default Object evaluate(final Frame frame) {
+      return evaluateDouble(frame);
+    }
+  }
+
+  /** A node proven to produce a bool, computed without boxing. */
+  @FunctionalInterface
+  interface OfBoolean extends Node {
+    @Override
+    boolean evaluateBoolean(final Frame frame);
+
+    @Override
+    default Object evaluate(final Frame frame) {
+      return evaluateBoolean(frame);
+    }
+  }
+}
@@ -0,0 +1,488 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.BinaryOp;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+import java.util.stream.BaseStream;
+
+/**
+ * Runtime semantics of the CEL operators.
+ *
+ * <p>Both the {@link Interpreter} and the {@link Compiler} delegate to these helpers so that the
+ * two execution engines produce identical results and raise identical errors.
+ */
+final class Operators {
+  private Operators() {}
+
+  static Object add(final Object left, final Object right) {
+    // String concatenation
+    if (left instanceof String || right instanceof String) {
+      return String.valueOf(left) + right;
+    }
+    // List concatenation
+    if (left instanceof List<?> l && right instanceof List<?> r) {
+      final var result = new ArrayList<Object>(l);
+      result.addAll(r);
+      return result;
+    }
+    // Numeric addition
+    if (left instanceof Number && right instanceof Number) {
+      return addNumbers((Number) left, (Number) right);
+    }
+    throw new EvaluationError("Invalid operands for addition");
+  }
+
+  static Object subtract(final Object left, final Object right) {
+    if (left instanceof Number && right instanceof Number) {
+      return subtractNumbers((Number) left, (Number) right);
+    }
+    throw new EvaluationError("Subtraction requires numeric operands");
+  }
+
+  static Object multiply(final Object left, final Object right) {
+    if (left instanceof Number && right instanceof Number) {
+      return multiplyNumbers((Number) left, (Number) right);
+    }
+    // String repetition
+    if (left instanceof String str && right instanceof Number num) {
+      return str.repeat(num.intValue());
+    }
+    // List repetition
+    if (left instanceof List<?> list && right instanceof Number num) {
+      final var result = new ArrayList<>();
+      final var count = num.intValue();
+      for (int i = 0; i < count; i++) {
+        result.addAll(list);
+      }
+      return result;
+    }
+    throw new EvaluationError("Invalid operands for multiplication");
+  }
+
+  static Object divide(final Object left, final Object right) {
+    if (left instanceof Number && right instanceof Number) {
+      final var value = ((Number) right).doubleValue();
+      if (value == 0.0) {
+        throw new EvaluationError("Division by zero");
+      }
+      // Division always returns double
+      return ((Number) left).doubleValue() / value;
+    }
+    throw new EvaluationError("Division requires numeric operands");
+  }
+
+  static Object modulo(final Object left, final Object right) {
+    if (left instanceof Long l && right instanceof Long r) {
+      if (r == 0L) {
+        throw new EvaluationError("Modulo by zero");
+      }
+      return l % r;
+    }
+    if (left instanceof Integer l && right instanceof Integer r) {
+      if (r == 0) {
+        throw new EvaluationError("Modulo by zero");
+      }
+      return (long) (l % r);
+    }
+    // Try to convert to long
+    if (left instanceof Number && right instanceof Number) {
+      final var l = ((Number) left).longValue();
+      final var r = ((Number) right).longValue();
+      if (r == 0L) {
+        throw new EvaluationError("Modulo by zero");
+      }
+      return l % r;
+    }
+    throw new EvaluationError("Modulo requires integer operands");
+  }
+
+  static Object arithmetic(final BinaryOp op, final Object left, final Object right) {
+    return switch (op) {
+      case ADD -> add(left, right);
+      case SUBTRACT -> subtract(left, right);
+      case MULTIPLY -> multiply(left, right);
+      case DIVIDE -> divide(left, right);
+      case MODULO -> modulo(left, right);
+      default -> throw new EvaluationError("Unknown arithmetic operator: " + op);
+    };
+  }
+
+  // The numeric result of an arithmetic operator widened to a double, computed without boxing. The
+  // result is the double value of what arithmetic(op, left, right) returns for the same operands.
+  static double real(final BinaryOp op, final Number left, final Number right) {
+    final var floating = floating(left) || floating(right);
+    return switch (op) {
+      case ADD ->
+          floating
+              ? left.doubleValue() + right.doubleValue()
+              : (double) (left.longValue() + right.longValue());
+      case SUBTRACT ->
+          floating
+              ? left.doubleValue() - right.doubleValue()
+              : (double) (left.longValue() - right.longValue());
+      case MULTIPLY ->
+          floating
+              ? left.doubleValue() * right.doubleValue()
+              : (double) (left.longValue() * right.longValue());
+      case DIVIDE -> {
+        final var divisor = right.doubleValue();
+        if (divisor == 0.0) {
+          throw new EvaluationError("Division by zero");
+        }
+        yield left.doubleValue() / divisor;
+      }
+      case MODULO -> {
+        final var divisor = right.longValue();
+        if (divisor == 0L) {
+          throw new EvaluationError("Modulo by zero");
+        }
+        yield (double) (left.longValue() % divisor);
+      }
+      default -> throw new EvaluationError("Unknown arithmetic operator: " + op);
+    };
+  }
+
+  private static boolean floating(final Number number) {
+    return number instanceof Double || number instanceof Float;
+  }
+
+  static Object in(final Object left, final Object right) {
+    if (right instanceof List<?> list) {
+      return containsInList(list, left);
+    } else if (right instanceof Map<?, ?> map) {
+      return map.containsKey(left);
+    } else if (right instanceof String str && left instanceof String substr) {
+      return str.contains(substr);
+    }
+    throw new EvaluationError("IN operator requires list, map, or string on right side");
+  }
+
+  static Object not(final Object operand) {
+    if (!(operand instanceof Boolean)) {
+      throw new EvaluationError("NOT operator requires boolean operand");
+    }
+    return !(Boolean) operand;
+  }
+
+  static Object negate(final Object operand) {
+    if (operand instanceof Long l) {
+      return -l;
+    } else if (operand instanceof Integer i) {
+      return -(long) i;
+    } else if (operand instanceof Double d) {
+      return -d;
+    } else if (operand instanceof Float f) {
+      return -(double) f;
+    }
+    throw new EvaluationError("Negation requires numeric operand");
+  }
+
+  /**
+   * Returns the elements that macros and comprehensions iterate over for a value.
+   *
+   * <p>Lists, sets and any other {@link Iterable} are iterated directly, maps over their keys,
+   * arrays through a view without copying, and streams once, as they are consumed. Elements of
+   * integral arrays are CEL ints and elements of {@code float[]} are CEL doubles; they are boxed
+   * one at a time as the iteration reaches them.
+   *
+   * @param value the macro target or comprehension range
+   * @return the elements, or null if the value cannot be iterated
+   */
+  static Iterable<?> iterable(final Object value) {
+    if (value instanceof Iterable<?> iterable) {
+      return iterable;
+    } else if (value instanceof Map<?, ?> map) {
+      return map.keySet();
+    } else if (value instanceof Object[] array) {
+      return Arrays.asList(array);
+    } else if (value instanceof long[] array) {
+      return new ArrayView(array.length, i -> array[i]);
+    } else if (value instanceof int[] array) {
+      return new ArrayView(array.length, i -> (long) array[i]);
+    } else if (value instanceof short[] array) {
+      return new ArrayView(array.length, i -> (long) array[i]);
+    } else if (value instanceof byte[] array) {
+      return new ArrayView(array.length, i -> (long) array[i]);
+    } else if (value instanceof double[] array) {
+      return new ArrayView(array.length, i -> array[i]);
+    } else if (value instanceof float[] array) {
+      return new ArrayView(array.length, i -> (double) array[i]);
+    } else if (value instanceof boolean[] array) {
+      return new ArrayView(array.length, i -> array[i]);
+    } else if (value instanceof BaseStream<?, ?> stream) {
+      return once(stream);
+    }
+    return null;
+  }
+
+  // A stream can only be consumed once, so iterating it a second time fails
+  private static <T> Iterable<T> once(final BaseStream<T, ?> stream) {
+    return stream::iterator;
+  }
+
+  /**
+   * Returns the number of elements of an iterable if it is known without iterating.
+   *
+   * @param iterable the elements
+   * @param fallback the size to assume otherwise
+   * @return the size of a collection, or the fallback
+   */
+  static int sizeOf(final Iterable<?> iterable, final int fallback) {
+    return iterable instanceof Collection<?> collection ? collection.size() : fallback;
+  }
+
+  /** A read-only list over the elements of a primitive array. */
+  private static final class ArrayView extends AbstractList<Object> implements RandomAccess {
+    private final int size;
+    private final IntFunction<Object> element;
+
+    ArrayView(final int size, final IntFunction<Object> element) {
+      this.size = size;
+      this.element = element;
+    }
+
+    @Override
+    public Object get(final int index) {
+      return element.apply(Objects.checkIndex(index, size));
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  static Object select(final Object target, final String field, final boolean test) {
+    if (target == null) {
+      if (test) {
+        return false;
+      }
+      throw new EvaluationError("Cannot select field " + field + " from null");
+    }
+
+    if (target instanceof Map<?, ?> map) {
+      if (test) {
+        return map.containsKey(field);
+      }
+      if (!map.containsKey(field)) {
+        throw new EvaluationError("Field " + field + " not found");
+      }
+      return map.get(field);
+    }
+
+    if (JavaFields.selectable(target.getClass())) {
+      final var accessor = JavaFields.resolve(target.getClass(), field);
+      if (test) {
+        return accessor != null;
+      }
+      if (accessor == null) {
+        throw new EvaluationError("Field " + field + " not found");
+      }
+      return accessor.get(target);
+    }
+
+    throw new EvaluationError("Cannot select field from non-map type");
+  }
+
+  static Object index(final Object operand, final Object index) {
+    if (operand == null) {
+      throw new EvaluationError("Cannot index null value");
+    }
+
+    if (operand instanceof List<?> list) {
+      if (!(index instanceof Number)) {
+        throw new EvaluationError("List index must be an integer");
+      }
+      final int idx = ((Number) index).intValue();
+      if (idx < 0 || idx >= list.size()) {
+        throw new EvaluationError("List index out of bounds: " + idx);
+      }
+      return list.get(idx);
+    } else if (operand instanceof Map<?, ?> map) {
+      if (!map.containsKey(index)) {
+        throw new EvaluationError("Map key not found: " + index);
+      }
+      return map.get(index);
+    } else if (operand instanceof String str) {
+      if (!(index instanceof Number)) {
+        throw new EvaluationError("String index must be an integer");
+      }
+      final int idx = ((Number) index).intValue();
+      if (idx < 0 || idx >= str.length()) {
+        throw new EvaluationError("String index out of bounds: " + idx);
+      }
+      return String.valueOf(str.charAt(idx));
+    }
+
+    throw new EvaluationError("Cannot index type: " + operand.getClass().getName());
+  }
+
+  // Helper methods for numeric operations
+  static Number addNumbers(final Number left, final Number right) {
+    if (left instanceof Double
+        || right instanceof Double
+        || left instanceof Float
+        || right instanceof Float) {
+      return left.doubleValue() + right.doubleValue();
+    }
+    return left.longValue() + right.longValue();
+  }
+
+  static Number subtractNumbers(final Number left, final Number right) {
+    if (left instanceof Double
+        || right instanceof Double
+        || left instanceof Float
+        || right instanceof Float) {
+      return left.doubleValue() - right.doubleValue();
+    }
+    return left.longValue() - right.longValue();
+  }
+
+  static Number multiplyNumbers(final Number left, final Number right) {
+    if (left instanceof Double
+        || right instanceof Double
+        || left instanceof Float
+        || right instanceof Float) {
+      return left.doubleValue() * right.doubleValue();
+    }
+    return left.longValue() * right.longValue();
+  }
+
+  // Unboxing for the primitive evaluation paths
+  static long unboxLong(final Object value) {
+    if (value instanceof Long l) {
+      return l;
+    } else if (value instanceof Integer i) {
+      return i;
+    }
+    throw mismatch("int", value);
+  }
+
+  static double unboxDouble(final Object value) {
+    if (value instanceof Double d) {
+      return d;
+    } else if (value instanceof Float f) {
+      return f;
+    }
+    throw mismatch("double", value);
+  }
+
+  static boolean unboxBoolean(final Object value) {
+    if (value instanceof Boolean b) {
+      return b;
+    }
+    throw mismatch("bool", value);
+  }
+
+  private static EvaluationError mismatch(final String expected, final Object value) {
+    return new EvaluationError(
+        "Expected " + expected + " value but got " + Utilities.typeOf(value));
+  }
+
+  // Deep equality checking
+  static boolean equals(final Object left, final Object right) {
+    if (left == null || right == null) {
+      return left == right;
+    }
+
+    if (left instanceof List<?> l && right instanceof List<?> r) {
+      if (l.size() != r.size()) {
+        return false;
+      }
+      for (int i = 0; i < l.size(); i++) {
+        if (!equals(l.get(i), r.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    if (left instanceof Map<?, ?> l && right instanceof Map<?, ?> r) {
+      if (l.size() != r.size()) {
+        return false;
+      }
+      for (final var key : l.keySet()) {
+        if (!r.containsKey(key)) {
+          return false;
+        }
+        if (!equals(l.get(key), r.get(key))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Numeric equality with type coercion
+    if (left instanceof Number ln && right instanceof Number rn) {
+      // If either is floating point, compare as doubles
+      if (ln instanceof Double
+          || ln instanceof Float
+          || rn instanceof Double
+          || rn instanceof Float) {
+        return ln.doubleValue() == rn.doubleValue();
+      }
+      // Otherwise compare as longs
+      return ln.longValue() == rn.longValue();
+    }
+
+    return left.equals(right);
+  }
+
+  // Helper for list contains with deep equality
+  static boolean containsInList(final List<?> list, final Object value) {
+    if (list instanceof HashedList hashed) {
+      return hashed.includes(value);
+    }
+    for (final var item : list) {
+      if (equals(item, value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Lexicographic comparison
+  static int compare(final Object left, final Object right) {
+    if (left == null && right == null) {
+      return 0;
+    }
+    if (left == null) {
+      return -1;
+    }
+    if (right == null) {
+      return 1;
+    }
+
+    if (left instanceof Number && right instanceof Number) {
+      final var l = ((Number) left).doubleValue();
+      final var r = ((Number) right).doubleValue();
+      return Double.compare(l, r);
+    } else if (left instanceof String && right instanceof String) {
+      return ((String) left).compareTo((String) right);
+    } else if (left instanceof Boolean && right instanceof Boolean) {
+      return Boolean.compare((Boolean) left, (Boolean) right);
+    } else if (left instanceof List<?> l && right instanceof List<?> r) {
+      final int size = Math.min(l.size(), r.size());
+      for (var i = 0; i < size; i++) {
+        final var cmp = compare(l.get(i), r.get(i));
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return Integer.compare(l.size(), r.size());
+    }
+
+    throw new EvaluationError(
+        "Cannot compare types: "
+            + left.getClass().getName()
+            + " and "
+            + right.getClass().getName());
+  }
+}
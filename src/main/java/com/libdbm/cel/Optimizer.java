@@ -0,0 +1,468 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import com.libdbm.cel.parser.Span;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizer that simplifies CEL expressions before they are turned into a {@link Program}.
+ *
+ * <p>Subtrees whose operands are all literals are evaluated once and replaced by a {@link Literal}
+ * holding the result. This covers operators, conditionals, list, map and struct literals, field
+ * selection and indexing, and calls to the pure functions of the standard library. Conditionals
+ * with a literal condition are reduced to the branch that would be taken, and logical operators
+ * with a literal operand are simplified where the result does not depend on it.
+ *
+ * <p>Folding never changes the outcome of an evaluation: a subtree that fails when evaluated is
+ * kept as is, so it reports the same error at evaluation time. Lists and maps computed at compile
+ * time are shared between evaluations and are therefore unmodifiable; large ones on the right of
+ * {@code in} are also indexed, so membership takes constant time. Subtrees that are not
+ * simplified are returned unchanged, preserving their identity.
+ */
+final class Optimizer implements Expression.Visitor<Expression> {
+  // Standard functions whose result depends only on their arguments
+  private static final Set<String> PURE_FUNCTIONS =
+      Set.of(
+          "size", "int", "uint", "double", "string", "bool", "type", "has", "matches", "duration",
+          "max", "min");
+  // Standard methods whose result depends only on their target and arguments
+  private static final Set<String> PURE_METHODS =
+      Set.of("size", "contains", "startsWith", "endsWith", "trim", "replace", "split");
+  // Macros that always produce a boolean
+  private static final Set<String> PREDICATES = Set.of("all", "exists", "existsOne");
+
+  private final Interpreter interpreter;
+  private final boolean standard;
+  private final Map<Expression, Span> spans;
+
+  /**
+   * Constructs an optimizer for programs that will use the given function library.
+   *
+   * @param functions the function library; if null, {@link StandardFunctions} is used
+   */
+  Optimizer(final Functions functions) {
+    this(functions, null);
+  }
+
+  /**
+   * Constructs an optimizer that keeps the source spans of the expressions it optimizes.
+   *
+   * @param functions the function library; if null, {@link StandardFunctions} is used
+   * @param spans the spans recorded by the parser, keyed by node identity; every node that replaces
+   *     a spanned node is added with the span of the node it replaces. May be null.
+   */
+  Optimizer(final Functions functions, final Map<Expression, Span> spans) {
+    this.spans = spans;
+    final var library = functions != null ? functions : new StandardFunctions();
+    this.interpreter = Interpreter.of(null, library);
+    // Calls can only be folded when their implementation is known not to change
+    this.standard = library.getClass() == StandardFunctions.class;
+  }
+
+  /**
+   * Optimizes an expression.
+   *
+   * <p>Collections are only folded where they are consumed by the expression, such as the right
+   * operand of {@code in}. Wherever they could become part of the result, they are built again by
+   * every evaluation, so that callers receive fresh mutable collections.
+   *
+   * @param expr the expression to optimize
+   * @return an equivalent expression, or the same instance if nothing could be simplified
+   */
+  Expression optimize(final Expression expr) {
+    return thaw(rewrite(expr));
+  }
+
+  private Expression rewrite(final Expression expr) {
+    return replace(expr, expr.accept(this));
+  }
+
+  // Gives the node replacing an expression the span of the expression
+  private Expression replace(final Expression expr, final Expression replacement) {
+    if (spans != null && replacement != expr && spans.containsKey(expr)) {
+      spans.putIfAbsent(replacement, spans.get(expr));
+    }
+    return replacement;
+  }
+
+  // Turns the folded collections that may be returned by an expression back into list and map
+  // expressions. Elements of a returned collection, branches of a returned conditional, and the
+  // operands of calls may all end up in the result, so they are thawed too.
+  private Expression thaw(final Expression expr) {
+    if (expr instanceof Literal literal) {
+      if (literal.value() instanceof List<?> list) {
+        final var elements = new ArrayList<Expression>(list.size());
+        for (final Object element : list) {
+          elements.add(thaw(literal(element)));
+        }
+        return replace(expr, new ListExpression(elements));
+      }
+      if (literal.value() instanceof Map<?, ?> map) {
+        final var entries = new ArrayList<MapEntry>(map.size());
+        map.forEach(
+            (key, value) -> entries.add(new MapEntry(thaw(literal(key)), thaw(literal(value)))));
+        return replace(expr, new MapExpression(entries));
+      }
+      return expr;
+    } else if (expr instanceof ListExpression list) {
+      final var elements = thaw(list.elements());
+      return elements == list.elements() ? expr : replace(expr, new ListExpression(elements));
+    } else if (expr instanceof MapExpression map) {
+      final var entries = new ArrayList<MapEntry>(map.entries().size());
+      var changed = false;
+      for (final MapEntry entry : map.entries()) {
+        final var key = thaw(entry.key());
+        final var value = thaw(entry.value());
+        changed |= key != entry.key() || value != entry.value();
+        entries.add(new MapEntry(key, value));
+      }
+      return changed ? replace(expr, new MapExpression(entries)) : expr;
+    } else if (expr instanceof Struct struct) {
+      final var fields = new ArrayList<FieldInitializer>(struct.fields().size());
+      var changed = false;
+      for (final FieldInitializer field : struct.fields()) {
+        final var value = thaw(field.value());
+        changed |= value != field.value();
+        fields.add(new FieldInitializer(field.field(), value));
+      }
+      return changed ? replace(expr, new Struct(struct.type(), fields)) : expr;
+    } else if (expr instanceof Conditional conditional) {
+      final var then = thaw(conditional.then());
+      final var otherwise = thaw(conditional.otherwise());
+      return then == conditional.then() && otherwise == conditional.otherwise()
+          ? expr
+          : replace(expr, new Conditional(conditional.condition(), then, otherwise));
+    } else if (expr instanceof Index index) {
+      final var operand = thaw(index.operand());
+      return operand == index.operand()
+          ? expr
+          : replace(expr, new Index(operand, index.index()));
+    } else if (expr instanceof Select select && select.operand() != null && !select.isTest()) {
+      final var operand = thaw(select.operand());
+      return operand == select.operand()
+          ? expr
+          : replace(expr, new Select(operand, select.field(), false));
+    } else if (expr instanceof Binary binary && binary.op() == BinaryOp.ADD) {
+      final var left = thaw(binary.left());
+      final var right = thaw(binary.right());
+      return left == binary.left() && right == binary.right()
+          ? expr
+          : replace(expr, new Binary(binary.op(), left, right));
+    } else if (expr instanceof Call call
+        && !(call.isMacro() && PREDICATES.contains(call.function()))) {
+      final var target = call.target() != null ? thaw(call.target()) : null;
+      final var args = thaw(call.args());
+      return target == call.target() && args == call.args()
+          ? expr
+          : replace(expr, new Call(target, call.function(), args, call.isMacro()));
+    } else if (expr instanceof Comprehension comprehension) {
+      final var range = thaw(comprehension.range());
+      final var initializer = thaw(comprehension.initializer());
+      final var step = thaw(comprehension.step());
+      final var result = thaw(comprehension.result());
+      return range == comprehension.range()
+              && initializer == comprehension.initializer()
+              && step == comprehension.step()
+              && result == comprehension.result()
+          ? expr
+          : replace(
+              expr,
+              new Comprehension(
+                  comprehension.variable(),
+                  range,
+                  comprehension.accumulator(),
+                  initializer,
+                  comprehension.condition(),
+                  step,
+                  result));
+    }
+    return expr;
+  }
+
+  private List<Expression> thaw(final List<Expression> expressions) {
+    List<Expression> result = null;
+    for (int i = 0; i < expressions.size(); i++) {
+      final var original = expressions.get(i);
+      final var thawed = thaw(original);
+      if (thawed != original && result == null) {
+        result = new ArrayList<>(expressions.subList(0, i));
+      }
+      if (result != null) {
+        result.add(thawed);
+      }
+    }
+    return result != null ? result : expressions;
+  }
+
+  private List<Expression> rewrite(final List<Expression> expressions) {
+    List<Expression> result = null;
+    for (int i = 0; i < expressions.size(); i++) {
+      final var original = expressions.get(i);
+      final var optimized = rewrite(original);
+      if (optimized != original && result == null) {
+        result = new ArrayList<>(expressions.subList(0, i));
+      }
+      if (result != null) {
+        result.add(optimized);
+      }
+    }
+    return result != null ? result : expressions;
+  }
+
+  // Evaluates an expression whose operands are all literals, keeping it if evaluation fails
+  private Expression fold(final Expression expr) {
+    final Object value;
+    try {
+      value = interpreter.evaluate(expr);
+    } catch (final RuntimeException e) {
+      return expr;
+    }
+    return literal(value);
+  }
+
+  // Large literal lists on the right of `in` are looked up through a hash index
+  private static Literal index(final Literal literal) {
+    if (literal.value() instanceof List<?> list
+        && !(list instanceof HashedList)
+        && list.size() >= HashedList.MIN_SIZE) {
+      return new Literal(HashedList.of(list), LiteralType.VALUE);
+    }
+    return literal;
+  }
+
+  private static Literal literal(final Object value) {
+    if (value == null) {
+      return new Literal(null, LiteralType.NULL_VALUE);
+    } else if (value instanceof Boolean) {
+      return new Literal(value, LiteralType.BOOL);
+    } else if (value instanceof Long || value instanceof Integer) {
+      return new Literal(value, LiteralType.INT);
+    } else if (value instanceof Double || value instanceof Float) {
+      return new Literal(value, LiteralType.DOUBLE);
+    } else if (value instanceof String) {
+      return new Literal(value, LiteralType.STRING);
+    } else if (value instanceof List<?> list) {
+      return new Literal(Collections.unmodifiableList(list), LiteralType.VALUE);
+    } else if (value instanceof Map<?, ?> map) {
+      return new Literal(Collections.unmodifiableMap(map), LiteralType.VALUE);
+    }
+    return new Literal(value, LiteralType.VALUE);
+  }
+
+  private static boolean constant(final Expression expr) {
+    return expr instanceof Literal;
+  }
+
+  private static boolean constant(final List<Expression> expressions) {
+    for (final Expression expr : expressions) {
+      if (!constant(expr)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Returns whether an expression always evaluates to a boolean when it does not fail
+  private static boolean bool(final Expression expr) {
+    if (expr instanceof Literal literal) {
+      return literal.value() instanceof Boolean;
+    } else if (expr instanceof Unary unary) {
+      return unary.op() == UnaryOp.NOT;
+    } else if (expr instanceof Binary binary) {
+      return switch (binary.op()) {
+        case ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO -> false;
+        default -> true;
+      };
+    } else if (expr instanceof Select select) {
+      return select.isTest();
+    } else if (expr instanceof Call call) {
+      return call.isMacro() && call.target() != null && PREDICATES.contains(call.function());
+    }
+    return false;
+  }
+
+  @Override
+  public Expression visitLiteral(final Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expression visitIdentifier(final Identifier expr) {
+    return expr;
+  }
+
+  @Override
+  public Expression visitSelect(final Select expr) {
+    if (expr.operand() == null) {
+      return expr;
+    }
+    final var operand = rewrite(expr.operand());
+    final var result =
+        operand == expr.operand() ? expr : new Select(operand, expr.field(), expr.isTest());
+    return constant(operand) ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitCall(final Call expr) {
+    final var target = expr.target() != null ? rewrite(expr.target()) : null;
+    final var args = rewrite(expr.args());
+    final var result =
+        target == expr.target() && args == expr.args()
+            ? expr
+            : new Call(target, expr.function(), args, expr.isMacro());
+
+    // Macros bind variables and are never folded
+    if (!standard || expr.isMacro() || !constant(args)) {
+      return result;
+    }
+    if (target == null) {
+      return PURE_FUNCTIONS.contains(expr.function()) ? fold(result) : result;
+    }
+    return constant(target) && PURE_METHODS.contains(expr.function()) ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitList(final ListExpression expr) {
+    final var elements = rewrite(expr.elements());
+    final var result = elements == expr.elements() ? expr : new ListExpression(elements);
+    return constant(elements) ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitMap(final MapExpression expr) {
+    List<MapEntry> entries = null;
+    var literals = true;
+    for (int i = 0; i < expr.entries().size(); i++) {
+      final var entry = expr.entries().get(i);
+      final var key = rewrite(entry.key());
+      final var value = rewrite(entry.value());
+      if ((key != entry.key() || value != entry.value()) && entries == null) {
+        entries = new ArrayList<>(expr.entries().subList(0, i));
+      }
+      if (entries != null) {
+        entries.add(
+            key == entry.key() && value == entry.value() ? entry : new MapEntry(key, value));
+      }
+      literals &= constant(key) && constant(value);
+    }
+    final var result = entries == null ? expr : new MapExpression(entries);
+    return literals ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitStruct(final Struct expr) {
+    List<FieldInitializer> fields = null;
+    var literals = true;
+    for (int i = 0; i < expr.fields().size(); i++) {
+      final var field = expr.fields().get(i);
+      final var value = rewrite(field.value());
+      if (value != field.value() && fields == null) {
+        fields = new ArrayList<>(expr.fields().subList(0, i));
+      }
+      if (fields != null) {
+        fields.add(value == field.value() ? field : new FieldInitializer(field.field(), value));
+      }
+      literals &= constant(value);
+    }
+    final var result = fields == null ? expr : new Struct(expr.type(), fields);
+    return literals ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitComprehension(final Comprehension expr) {
+    final var range = rewrite(expr.range());
+    final var initializer = rewrite(expr.initializer());
+    final var condition = rewrite(expr.condition());
+    final var step = rewrite(expr.step());
+    final var result = rewrite(expr.result());
+    if (range == expr.range()
+        && initializer == expr.initializer()
+        && condition == expr.condition()
+        && step == expr.step()
+        && result == expr.result()) {
+      return expr;
+    }
+    return new Comprehension(
+        expr.variable(), range, expr.accumulator(), initializer, condition, step, result);
+  }
+
+  @Override
+  public Expression visitUnary(final Unary expr) {
+    final var operand = rewrite(expr.operand());
+    // Double negation of a boolean is the boolean itself
+    if (expr.op() == UnaryOp.NOT
+        && operand instanceof Unary inner
+        && inner.op() == UnaryOp.NOT
+        && bool(inner.operand())) {
+      return inner.operand();
+    }
+    final var result = operand == expr.operand() ? expr : new Unary(expr.op(), operand);
+    return constant(operand) ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitBinary(final Binary expr) {
+    final var left = rewrite(expr.left());
+    final var right = rewrite(expr.right());
+
+    if (expr.op() == BinaryOp.LOGICAL_AND || expr.op() == BinaryOp.LOGICAL_OR) {
+      final var decisive = expr.op() == BinaryOp.LOGICAL_OR;
+      if (left instanceof Literal literal) {
+        // The left operand decides the result without evaluating the right one
+        if (Boolean.TRUE.equals(literal.value()) == decisive) {
+          return literal(decisive);
+        }
+        // Otherwise the result is the right operand coerced to a boolean
+        if (bool(right)) {
+          return right;
+        }
+      } else if (right instanceof Literal literal
+          && Boolean.TRUE.equals(literal.value()) != decisive
+          && bool(left)) {
+        // Neither true && nor false || change a boolean left operand
+        return left;
+      }
+    }
+
+    if (expr.op() == BinaryOp.IN && !constant(left) && right instanceof Literal literal) {
+      final var indexed = index(literal);
+      if (indexed != literal) {
+        return new Binary(expr.op(), left, indexed);
+      }
+    }
+
+    final var result =
+        left == expr.left() && right == expr.right() ? expr : new Binary(expr.op(), left, right);
+    return constant(left) && constant(right) ? fold(result) : result;
+  }
+
+  @Override
+  public Expression visitConditional(final Conditional expr) {
+    final var condition = rewrite(expr.condition());
+    if (condition instanceof Literal literal) {
+      // Only the branch that would be taken is kept
+      return Boolean.TRUE.equals(literal.value())
+          ? rewrite(expr.then())
+          : rewrite(expr.otherwise());
+    }
+    final var then = rewrite(expr.then());
+    final var otherwise = rewrite(expr.otherwise());
+    if (condition == expr.condition() && then == expr.then() && otherwise == expr.otherwise()) {
+      return expr;
+    }
+    return new Conditional(condition, then, otherwise);
+  }
+
+  @Override
+  public Expression visitIndex(final Index expr) {
+    final var operand = rewrite(expr.operand());
+    final var index = rewrite(expr.index());
+    final var result =
+        operand == expr.operand() && index == expr.index() ? expr : new Index(operand, index);
+    return constant(operand) && constant(index) ? fold(result) : result;
+  }
+}
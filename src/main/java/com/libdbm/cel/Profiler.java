@@ -0,0 +1,272 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import com.libdbm.cel.parser.Span;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Evaluates a program while recording, for each node of its expression, how often it was evaluated
+ * and how long it took.
+ *
+ * <p>Each node reports its hit count and the time spent evaluating it, both inclusive of its
+ * operands and exclusive of them. Logical operators also report how often their left operand
+ * decided the result, and conditionals how often each branch was taken. The body of a macro is
+ * counted once per element it is evaluated for, so an expensive {@code filter} or regular
+ * expression stands out from the rest of a rule.
+ *
+ * <p>Counters accumulate over all evaluations until {@link #reset()} is called. Timing every node
+ * slows evaluation down considerably, so profilers are meant for diagnosing slow expressions rather
+ * than for production traffic. A profiler must not be used from several threads concurrently.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * final Profiler profiler = program.profiler();
+ * for (final Map<String, Object> input : inputs) {
+ *   profiler.evaluate(input);
+ * }
+ * System.out.println(profiler.report());
+ * }</pre>
+ */
+public final class Profiler {
+  private final Expression ast;
+  private final Functions functions;
+  private final String source;
+  private final Map<Expression, Span> spans;
+  private final Map<Expression, Counters> counters = new IdentityHashMap<>();
+
+  Profiler(
+      final Expression ast,
+      final Functions functions,
+      final String source,
+      final Map<Expression, Span> spans) {
+    this.ast = ast;
+    this.functions = functions;
+    this.source = source;
+    this.spans = spans;
+  }
+
+  /**
+   * Evaluates the program with the given variables, recording the cost of each node.
+   *
+   * @param variables A map of variable names to their values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation
+   */
+  public Object evaluate(final Map<String, Object> variables) {
+    return evaluateWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates the program, resolving variables on demand from an activation and recording the cost
+   * of each node.
+   *
+   * @param activation The source of variable values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation
+   */
+  public Object evaluateWith(final Activation activation) {
+    return new Recorder(activation).evaluate(ast);
+  }
+
+  /** Clears all counters. */
+  public void reset() {
+    counters.clear();
+  }
+
+  /**
+   * Returns the counters of every node evaluated at least once, most expensive first.
+   *
+   * @return The entries, ordered by decreasing inclusive time
+   */
+  public List<Entry> entries() {
+    final var entries = new ArrayList<Entry>(counters.size());
+    counters.forEach(
+        (expr, counter) -> {
+          final var span = spans.get(expr);
+          final var text = span != null && source != null ? span.text(source) : describe(expr);
+          entries.add(
+              new Entry(
+                  span,
+                  text,
+                  describe(expr),
+                  counter.hits,
+                  counter.inclusive,
+                  counter.exclusive,
+                  counter.first,
+                  counter.second));
+        });
+    entries.sort(Comparator.comparingLong(Entry::inclusiveNanos).reversed());
+    return entries;
+  }
+
+  /**
+   * Formats the counters as a table with one line per node, keyed by source span.
+   *
+   * <p>The columns are the span as {@code line:column-line:column}, the hit count, the inclusive
+   * and exclusive time in microseconds, the branch counts of logical operators and conditionals,
+   * and the source text of the node.
+   *
+   * @return The report, most expensive node first
+   */
+  public String report() {
+    final var report = new StringBuilder();
+    report.append(
+        String.format(
+            "%-15s %10s %14s %14s %17s  %s%n",
+            "span", "hits", "inclusive(us)", "exclusive(us)", "branches", "expression"));
+    for (final Entry entry : entries()) {
+      final var span =
+          entry.span() != null && source != null ? entry.span().format(source) : "-";
+      final var branches = branches(entry);
+      report.append(
+          String.format(
+              "%-15s %10d %14.1f %14.1f %17s  %s%n",
+              span,
+              entry.hits(),
+              entry.inclusiveNanos() / 1000.0,
+              entry.exclusiveNanos() / 1000.0,
+              branches,
+              entry.text().replaceAll("\\s+", " ")));
+    }
+    return report.toString();
+  }
+
+  private String branches(final Entry entry) {
+    final var expr = entry.kind();
+    if (expr.equals("&&") || expr.equals("||")) {
+      return "left " + entry.first() + " / right " + entry.second();
+    }
+    if (expr.equals("?:")) {
+      return "then " + entry.first() + " / else " + entry.second();
+    }
+    return "";
+  }
+
+  // A short description of the operation a node performs
+  private static String describe(final Expression expr) {
+    if (expr instanceof Literal) {
+      return "literal";
+    } else if (expr instanceof Identifier identifier) {
+      return "variable " + identifier.name();
+    } else if (expr instanceof Select select) {
+      return select.isTest() ? "has ." + select.field() : "select ." + select.field();
+    } else if (expr instanceof Call call) {
+      return (call.isMacro() ? "macro " : "call ") + call.function();
+    } else if (expr instanceof ListExpression) {
+      return "list";
+    } else if (expr instanceof MapExpression) {
+      return "map";
+    } else if (expr instanceof Struct struct) {
+      return "struct " + struct.type();
+    } else if (expr instanceof Comprehension) {
+      return "comprehension";
+    } else if (expr instanceof Unary unary) {
+      return unary.op() == UnaryOp.NOT ? "!" : "-";
+    } else if (expr instanceof Binary binary) {
+      return switch (binary.op()) {
+        case LOGICAL_AND -> "&&";
+        case LOGICAL_OR -> "||";
+        default -> binary.op().name().toLowerCase(Locale.ROOT);
+      };
+    } else if (expr instanceof Conditional) {
+      return "?:";
+    } else if (expr instanceof Index) {
+      return "index";
+    }
+    return expr.getClass().getSimpleName();
+  }
+
+  /**
+   * The counters of one node.
+   *
+   * @param span The source text the node was parsed from, or null if it is not known
+   * @param text The source text of the node, or its description if the source is not known
+   * @param kind A short description of the operation, such as {@code &&}, {@code call matches} or
+   *     {@code macro filter}
+   * @param hits The number of times the node was evaluated
+   * @param inclusiveNanos The time spent evaluating the node, including its operands
+   * @param exclusiveNanos The time spent evaluating the node, excluding its operands
+   * @param first For {@code &&} and {@code ||}, how often the left operand decided the result; for
+   *     conditionals, how often the then branch was taken; zero for other nodes
+   * @param second For {@code &&} and {@code ||}, how often the right operand was evaluated; for
+   *     conditionals, how often the else branch was taken; zero for other nodes
+   */
+  public record Entry(
+      Span span,
+      String text,
+      String kind,
+      long hits,
+      long inclusiveNanos,
+      long exclusiveNanos,
+      long first,
+      long second) {}
+
+  private static final class Counters {
+    private long hits;
+    private long inclusive;
+    private long exclusive;
+    private long first;
+    private long second;
+  }
+
+  /** An interpreter timing every node it evaluates. */
+  private final class Recorder extends Interpreter {
+    // The time spent in the operands of the node being evaluated
+    private long operands;
+
+    Recorder(final Activation activation) {
+      // Macros run sequentially so that their bodies are timed on this thread
+      super(activation, functions, 0);
+    }
+
+    @Override
+    public Object evaluate(final Expression expr) {
+      final var counter = counters.computeIfAbsent(expr, key -> new Counters());
+      final var branch = branch(expr);
+      final var before = branch != null ? hits(branch) : 0L;
+      final var outer = operands;
+      operands = 0;
+      final var started = System.nanoTime();
+      var completed = false;
+      try {
+        final var result = expr.accept(this);
+        completed = true;
+        return result;
+      } finally {
+        final var elapsed = System.nanoTime() - started;
+        counter.hits++;
+        counter.inclusive += elapsed;
+        counter.exclusive += elapsed - operands;
+        operands = outer + elapsed;
+        if (branch != null && hits(branch) > before) {
+          counter.second++;
+        } else if (branch != null && completed) {
+          counter.first++;
+        }
+      }
+    }
+
+    // The operand whose evaluation tells which way a logical operator or conditional went
+    private Expression branch(final Expression expr) {
+      if (expr instanceof Binary binary
+          && (binary.op() == BinaryOp.LOGICAL_AND || binary.op() == BinaryOp.LOGICAL_OR)) {
+        return binary.right();
+      }
+      if (expr instanceof Conditional conditional) {
+        return conditional.otherwise();
+      }
+      return null;
+    }
+
+    private long hits(final Expression expr) {
+      final var counter = counters.get(expr);
+      return counter != null ? counter.hits : 0L;
+    }
+  }
+}
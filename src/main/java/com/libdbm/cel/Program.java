@@ -1,8 +1,15 @@
 package com.libdbm.cel;
 
 import com.libdbm.cel.ast.Expression;
-import java.util.HashMap;
+import com.libdbm.cel.parser.Parser;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A compiled CEL program that can be evaluated multiple times.
@@ -13,10 +20,27 @@ import java.util.Map;
  *
  * <p>Programs are created using {@link CEL#compile} and should be reused when the same expression
  * needs to be evaluated multiple times.
+ *
+ * <p>Programs are safe to evaluate from multiple threads concurrently.
  */
 public class Program {
+  /**
+   * Number of evaluations after which a {@link Engine#TIERED} program is promoted to the compiled
+   * engine. Can be tuned with the {@code com.libdbm.cel.promotionThreshold} system property.
+   */
+  static final long PROMOTION_THRESHOLD = Long.getLong("com.libdbm.cel.promotionThreshold", 1000L);
+
+  // The smallest number of inputs worth handing to another thread
+  private static final int PARALLEL_CHUNK = 256;
+
+  private final String source;
   private final Expression ast;
   private final Functions functions;
+  private final Declarations declarations;
+  private final AtomicLong evaluations;
+  private final long threshold;
+  private final boolean adaptive;
+  private volatile Compiler.Executable executable;
 
   /**
    * Creates a new compiled program.
@@ -27,13 +51,120 @@ public class Program {
    * @param functions The function library to use for evaluation
    */
   Program(final Expression ast, final Functions functions) {
+    this(ast, functions, Engine.INTERPRETED);
+  }
+
+  /**
+   * Creates a new compiled program that runs on the given engine.
+   *
+   * <p>This constructor is typically called by {@link CEL#compile} and should not be used directly.
+   *
+   * @param ast The abstract syntax tree of the compiled expression
+   * @param functions The function library to use for evaluation
+   * @param engine The engine used to evaluate the program
+   */
+  Program(final Expression ast, final Functions functions, final Engine engine) {
+    this(ast, functions, engine, PROMOTION_THRESHOLD);
+  }
+
+  /**
+   * Creates a new compiled program with an explicit promotion threshold.
+   *
+   * @param ast The abstract syntax tree of the compiled expression
+   * @param functions The function library to use for evaluation
+   * @param engine The engine used to evaluate the program
+   * @param threshold The number of evaluations after which a tiered program is compiled
+   */
+  Program(
+      final Expression ast, final Functions functions, final Engine engine, final long threshold) {
+    this(ast, functions, engine, null, threshold);
+  }
+
+  /**
+   * Creates a new compiled program whose variables have declared types.
+   *
+   * @param ast The abstract syntax tree of the compiled expression
+   * @param functions The function library to use for evaluation
+   * @param engine The engine used to evaluate the program
+   * @param declarations The declared variable types used to specialize the compiled form, or null
+   * @param threshold The number of evaluations after which a tiered program is compiled
+   */
+  Program(
+      final Expression ast,
+      final Functions functions,
+      final Engine engine,
+      final Declarations declarations,
+      final long threshold) {
+    this(null, ast, functions, engine, declarations, threshold);
+  }
+
+  /**
+   * Creates a new compiled program that remembers the source it was parsed from.
+   *
+   * @param source The source text of the expression, or null if it is not known
+   * @param ast The abstract syntax tree of the compiled expression
+   * @param functions The function library to use for evaluation
+   * @param engine The engine used to evaluate the program
+   * @param declarations The declared variable types used to specialize the compiled form, or null
+   * @param threshold The number of evaluations after which a tiered program is compiled
+   */
+  Program(
+      final String source,
+      final Expression ast,
+      final Functions functions,
+      final Engine engine,
+      final Declarations declarations,
+      final long threshold) {
+    this.source = source;
     this.ast = ast;
     this.functions = functions;
+    this.declarations = declarations;
+    this.threshold = Math.max(1L, threshold);
+    this.evaluations = engine == Engine.TIERED ? new AtomicLong() : null;
+    this.adaptive = engine == Engine.ADAPTIVE;
+    this.executable = engine == Engine.COMPILED || adaptive ? compile() : null;
+  }
+
+  private Compiler.Executable compile() {
+    return new Compiler(functions, declarations, adaptive).build(ast);
+  }
+
+  /**
+   * Creates a profiler that evaluates this program while recording the cost of each node.
+   *
+   * <p>The profiler evaluates the expression with the interpreter whatever the engine of this
+   * program, so absolute times are those of interpreted evaluation. Nodes are reported with the
+   * span of source text they were parsed from when the program was compiled from source.
+   *
+   * @return A new profiler with empty counters
+   */
+  public Profiler profiler() {
+    if (source == null) {
+      return new Profiler(ast, functions, null, Map.of());
+    }
+    // Parse and optimize again to map the evaluated nodes back to their source spans
+    final var parser = new Parser(source, true);
+    final var spans = parser.spans();
+    final var profiled = new Optimizer(functions, spans).optimize(parser.parse());
+    return new Profiler(profiled, functions, source, spans);
+  }
+
+  /**
+   * Returns whether this program currently evaluates through the compiled engine.
+   *
+   * @return true once the program has been compiled or promoted
+   */
+  boolean isCompiled() {
+    return executable != null;
   }
 
   /**
    * Evaluates the compiled program with the given variables.
    *
+   * <p>The map is read directly without being copied, and it is never modified: macro and
+   * comprehension variables are bound in a separate scope for the duration of the evaluation. The
+   * map must not be modified by other threads while an evaluation is in progress.
+   *
    * @param variables A map of variable names to their values
    * @return The result of evaluating the expression
    * @throws EvaluationError if an error occurs during evaluation, such as undefined variables or
@@ -49,7 +180,267 @@ public class Program {
    * }</pre>
    */
   public Object evaluate(final Map<String, Object> variables) {
-    final var interpreter = new Interpreter(new HashMap<>(variables), functions);
+    return evaluateWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates the compiled program, resolving variables on demand from an activation.
+   *
+   * <p>Each variable is resolved only when the evaluation first references it, and the resolved
+   * value is reused for the rest of the evaluation. Variables that the expression never touches are
+   * never resolved.
+   *
+   * @param activation The source of variable values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, such as undefined variables or
+   *     type mismatches
+   */
+  public Object evaluateWith(final Activation activation) {
+    final var compiled = promote();
+    if (compiled != null) {
+      return compiled.evaluate(activation);
+    }
+    return interpret(activation);
+  }
+
+  /**
+   * Evaluates a program that produces a bool.
+   *
+   * <p>On the compiled engine, comparisons and logical operators pass primitives between each
+   * other, so predicates are evaluated without allocating wrappers for intermediate results.
+   *
+   * @param variables A map of variable names to their values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not a bool
+   */
+  public boolean evaluateBoolean(final Map<String, Object> variables) {
+    return evaluateBooleanWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates a program that produces a bool, resolving variables on demand from an activation.
+   *
+   * @param activation The source of variable values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not a bool
+   */
+  public boolean evaluateBooleanWith(final Activation activation) {
+    final var compiled = promote();
+    if (compiled != null) {
+      return compiled.evaluateBoolean(activation);
+    }
+    return Operators.unboxBoolean(interpret(activation));
+  }
+
+  /**
+   * Evaluates a program that produces an int.
+   *
+   * @param variables A map of variable names to their values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not an int
+   */
+  public long evaluateLong(final Map<String, Object> variables) {
+    return evaluateLongWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates a program that produces an int, resolving variables on demand from an activation.
+   *
+   * @param activation The source of variable values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not an int
+   */
+  public long evaluateLongWith(final Activation activation) {
+    final var compiled = promote();
+    if (compiled != null) {
+      return compiled.evaluateLong(activation);
+    }
+    return Operators.unboxLong(interpret(activation));
+  }
+
+  /**
+   * Evaluates a program that produces a double.
+   *
+   * <p>Int results are not converted; use {@link #evaluateLong(Map)} for programs producing ints.
+   *
+   * @param variables A map of variable names to their values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not a double
+   */
+  public double evaluateDouble(final Map<String, Object> variables) {
+    return evaluateDoubleWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates a program that produces a double, resolving variables on demand from an activation.
+   *
+   * @param activation The source of variable values
+   * @return The result of evaluating the expression
+   * @throws EvaluationError if an error occurs during evaluation, or if the result is not a double
+   */
+  public double evaluateDoubleWith(final Activation activation) {
+    final var compiled = promote();
+    if (compiled != null) {
+      return compiled.evaluateDouble(activation);
+    }
+    return Operators.unboxDouble(interpret(activation));
+  }
+
+  /**
+   * Evaluates the program once for every input of a batch.
+   *
+   * <p>The inputs are evaluated in order on the calling thread. On the compiled engines, all work
+   * that does not depend on the input, such as folding constants, binding functions and compiling
+   * literal patterns, is done once for the whole batch, and a single evaluation frame is reused for
+   * every input. A {@link Engine#TIERED} program is compiled before evaluating a batch that would
+   * take it past its promotion threshold.
+   *
+   * @param batch The variables of each evaluation
+   * @return The results, in the order of the inputs
+   * @throws EvaluationError if the evaluation of any input fails
+   */
+  public Object[] evaluateAll(final List<? extends Map<String, Object>> batch) {
+    final var results = new Object[batch.size()];
+    evaluateAll(batch, results);
+    return results;
+  }
+
+  /**
+   * Evaluates the program once for every input of a batch, storing the results in an array.
+   *
+   * <p>This variant lets callers stream inputs of any length through a results array that they
+   * reuse from one batch to the next. See {@link #evaluateAll(List)} for details.
+   *
+   * @param batch The variables of each evaluation
+   * @param results The array receiving the result of the n-th input at index n
+   * @return The number of inputs evaluated
+   * @throws IllegalArgumentException if the batch has more inputs than the array can hold
+   * @throws EvaluationError if the evaluation of any input fails
+   */
+  public int evaluateAll(
+      final Iterable<? extends Map<String, Object>> batch, final Object[] results) {
+    final var compiled = promote(batch);
+    if (compiled != null) {
+      return compiled.evaluateAll(batch, results);
+    }
+    int count = 0;
+    for (final Map<String, Object> variables : batch) {
+      if (count == results.length) {
+        throw new IllegalArgumentException("Batch has more than " + results.length + " inputs");
+      }
+      results[count++] = interpret(Activation.of(variables));
+    }
+    return count;
+  }
+
+  /**
+   * Evaluates the program once for every input of a batch, spreading the work over the common
+   * {@link ForkJoinPool}.
+   *
+   * @param batch The variables of each evaluation
+   * @return The results, in the order of the inputs
+   * @throws EvaluationError if the evaluation of any input fails
+   * @see #evaluateParallel(List, Executor)
+   */
+  public Object[] evaluateParallel(final List<? extends Map<String, Object>> batch) {
+    return evaluateParallel(batch, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Evaluates the program once for every input of a batch, spreading the work over an executor.
+   *
+   * <p>The batch is split into contiguous chunks, each evaluated by one task with its own
+   * evaluation state, as {@link #evaluateAll(List)} would. The batch must support fast random
+   * access and must not be modified until this method returns. Small batches are evaluated on the
+   * calling thread.
+   *
+   * @param batch The variables of each evaluation
+   * @param executor The executor running the chunks
+   * @return The results, in the order of the inputs
+   * @throws EvaluationError if the evaluation of any input fails; when several inputs fail, one of
+   *     their errors is reported
+   */
+  public Object[] evaluateParallel(
+      final List<? extends Map<String, Object>> batch, final Executor executor) {
+    final var results = new Object[batch.size()];
+    final var compiled = promote(batch);
+    final int chunks =
+        Math.min(Runtime.getRuntime().availableProcessors() * 4, batch.size() / PARALLEL_CHUNK);
+    if (chunks <= 1) {
+      evaluateAll(compiled, batch, 0, batch.size(), results);
+      return results;
+    }
+    final var tasks = new CompletableFuture<?>[chunks];
+    for (int i = 0; i < chunks; i++) {
+      final int from = (int) ((long) batch.size() * i / chunks);
+      final int to = (int) ((long) batch.size() * (i + 1) / chunks);
+      tasks[i] =
+          CompletableFuture.runAsync(
+              () -> evaluateAll(compiled, batch, from, to, results), executor);
+    }
+    try {
+      CompletableFuture.allOf(tasks).join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  private void evaluateAll(
+      final Compiler.Executable compiled,
+      final List<? extends Map<String, Object>> batch,
+      final int from,
+      final int to,
+      final Object[] results) {
+    if (compiled != null) {
+      compiled.evaluateAll(batch, from, to, results);
+      return;
+    }
+    for (int i = from; i < to; i++) {
+      results[i] = interpret(Activation.of(batch.get(i)));
+    }
+  }
+
+  private Object interpret(final Activation activation) {
+    final var interpreter = Interpreter.of(activation, functions);
     return interpreter.evaluate(ast);
   }
+
+  // Counts evaluations of a tiered program and compiles it once it becomes hot. Exactly one
+  // thread observes the threshold and compiles; the others keep interpreting until it is published.
+  private Compiler.Executable promote() {
+    final var compiled = executable;
+    if (compiled != null || evaluations == null) {
+      return compiled;
+    }
+    if (evaluations.incrementAndGet() != threshold) {
+      return null;
+    }
+    final var promoted = compile();
+    executable = promoted;
+    return promoted;
+  }
+
+  // Counts a whole batch towards the promotion of a tiered program. The thread whose batch
+  // reaches the threshold compiles, exactly as a single evaluation reaching it would.
+  private Compiler.Executable promote(final Iterable<?> batch) {
+    final var compiled = executable;
+    if (compiled != null || evaluations == null) {
+      return compiled;
+    }
+    final long size = batch instanceof Collection<?> collection ? collection.size() : threshold;
+    final long before = evaluations.getAndAdd(size);
+    if (before >= threshold || before + size < threshold) {
+      return null;
+    }
+    final var promoted = compile();
+    executable = promoted;
+    return promoted;
+  }
 }
@@ -0,0 +1,335 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index narrowing the rules of a {@link RuleSet} down to those that can match.
+ *
+ * <p>The leftmost operand of a rule's top-level {@code &&} chain decides whether the rest of the
+ * rule is evaluated at all. When that operand compares a variable or a field path to a literal, the
+ * rule is indexed under the path:
+ *
+ * <ul>
+ *   <li>{@code path == "text"} and {@code path == true} in a hash index,
+ *   <li>{@code path == 1}, {@code path > 1}, {@code path >= 1}, {@code path < 1} and {@code path <=
+ *       1} in sorted interval indexes,
+ *   <li>{@code path.startsWith("text")} in a prefix trie, when the rules use the standard library.
+ * </ul>
+ *
+ * <p>At evaluation time each indexed path is evaluated once and looked up in its indexes. The
+ * lookup yields a superset of the rules whose leftmost operand is true, and every candidate is then
+ * evaluated in full, so the index never changes which rules match. Rules without an indexable
+ * operand are always candidates, and so are all rules of a path whose value cannot be looked up,
+ * for instance because evaluating it fails or it has an unexpected type.
+ */
+final class RuleIndex {
+  private final BitSet unindexed;
+  private final Path[] paths;
+
+  private RuleIndex(final BitSet unindexed, final Path[] paths) {
+    this.unindexed = unindexed;
+    this.paths = paths;
+  }
+
+  /**
+   * Builds the index of a group of rules.
+   *
+   * @param rules the rule expressions
+   * @param compiler the compiler that compiled the rules, used to compile the indexed paths over
+   *     the same frame layout
+   * @return the index
+   */
+  static RuleIndex build(final List<Expression> rules, final Compiler compiler) {
+    final var unindexed = new BitSet(rules.size());
+    final var builders = new LinkedHashMap<Expression, Builder>();
+    for (int rule = 0; rule < rules.size(); rule++) {
+      if (!index(rule, leftmost(rules.get(rule)), compiler.standard(), builders)) {
+        unindexed.set(rule);
+      }
+    }
+    final var paths = new Path[builders.size()];
+    int i = 0;
+    for (final var entry : builders.entrySet()) {
+      paths[i++] = entry.getValue().build(compiler.compile(entry.getKey()));
+    }
+    return new RuleIndex(unindexed, paths);
+  }
+
+  /**
+   * Returns the rules that may match in the current evaluation.
+   *
+   * @param frame the frame the rules are evaluated in
+   * @return the candidate rules, by position
+   */
+  BitSet candidates(final Frame frame) {
+    final var candidates = (BitSet) unindexed.clone();
+    for (final Path path : paths) {
+      path.candidates(frame, candidates);
+    }
+    return candidates;
+  }
+
+  // The operand of a conjunction that is evaluated first
+  private static Expression leftmost(final Expression expr) {
+    var current = expr;
+    while (current instanceof Binary binary && binary.op() == BinaryOp.LOGICAL_AND) {
+      current = binary.left();
+    }
+    return current;
+  }
+
+  // Variables and field selections on them, which are evaluated the same way in every rule
+  private static boolean path(final Expression expr) {
+    if (expr instanceof Identifier) {
+      return true;
+    }
+    return expr instanceof Select select
+        && !select.isTest()
+        && select.operand() != null
+        && path(select.operand());
+  }
+
+  private static boolean index(
+      final int rule,
+      final Expression atom,
+      final boolean standard,
+      final Map<Expression, Builder> builders) {
+    // Custom libraries may implement startsWith differently
+    if (standard
+        && atom instanceof Call call
+        && call.function().equals("startsWith")
+        && !call.isMacro()
+        && call.target() != null
+        && path(call.target())
+        && call.args().size() == 1
+        && call.args().get(0) instanceof Literal literal
+        && literal.value() instanceof String prefix) {
+      builders.computeIfAbsent(call.target(), key -> new Builder()).prefixes.add(prefix, rule);
+      return true;
+    }
+    if (!(atom instanceof Binary binary)) {
+      return false;
+    }
+    var op = binary.op();
+    Expression path = binary.left();
+    Expression constant = binary.right();
+    if (!path(path)) {
+      // Compare the path against the literal with the operands swapped
+      path = binary.right();
+      constant = binary.left();
+      op = flip(op);
+    }
+    if (op == null || !path(path) || !(constant instanceof Literal literal)) {
+      return false;
+    }
+    final var value = literal.value();
+    if (op == BinaryOp.EQUAL && (value instanceof String || value instanceof Boolean)) {
+      builders.computeIfAbsent(path, key -> new Builder()).equal.add(value, rule);
+      return true;
+    }
+    if (!(value instanceof Long || value instanceof Integer || value instanceof Double)) {
+      return false;
+    }
+    final var bound = normalize(((Number) value).doubleValue());
+    final var builder = builders.computeIfAbsent(path, key -> new Builder());
+    switch (op) {
+      case EQUAL -> builder.exact.add(bound, rule);
+      case GREATER, GREATER_EQUAL -> builder.lower.add(bound, rule);
+      case LESS, LESS_EQUAL -> builder.upper.add(bound, rule);
+      default -> {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The operator comparing the operands in the opposite order, or null if it cannot be indexed
+  private static BinaryOp flip(final BinaryOp op) {
+    return switch (op) {
+      case EQUAL -> BinaryOp.EQUAL;
+      case LESS -> BinaryOp.GREATER;
+      case LESS_EQUAL -> BinaryOp.GREATER_EQUAL;
+      case GREATER -> BinaryOp.LESS;
+      case GREATER_EQUAL -> BinaryOp.LESS_EQUAL;
+      default -> null;
+    };
+  }
+
+  // Numeric equality treats both zeros as equal, so they share a position in the sorted indexes
+  private static double normalize(final double value) {
+    return value + 0.0;
+  }
+
+  /** The rules indexed under one path, collected while building. */
+  private static final class Builder {
+    private final Keys equal = new Keys();
+    private final Bounds exact = new Bounds();
+    private final Bounds lower = new Bounds();
+    private final Bounds upper = new Bounds();
+    private final Trie prefixes = new Trie();
+
+    Path build(final Node node) {
+      final var all = new BitSet();
+      equal.rules.values().forEach(rules -> rules.forEach(all::set));
+      exact.rules.forEach(all::set);
+      lower.rules.forEach(all::set);
+      upper.rules.forEach(all::set);
+      prefixes.collect(all);
+      return new Path(
+          node, all, equal.build(), exact.build(), lower.build(), upper.build(), prefixes);
+    }
+  }
+
+  /** Rules keyed by the literal they compare a path to. */
+  private static final class Keys {
+    private final Map<Object, List<Integer>> rules = new HashMap<>();
+
+    void add(final Object key, final int rule) {
+      rules.computeIfAbsent(key, k -> new ArrayList<>()).add(rule);
+    }
+
+    Map<Object, int[]> build() {
+      final var index = new HashMap<Object, int[]>();
+      rules.forEach(
+          (key, list) -> index.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+      return index;
+    }
+  }
+
+  /** Rules with a numeric bound, collected while building. */
+  private static final class Bounds {
+    private final List<Double> bounds = new ArrayList<>();
+    private final List<Integer> rules = new ArrayList<>();
+
+    void add(final double bound, final int rule) {
+      bounds.add(bound);
+      rules.add(rule);
+    }
+
+    Sorted build() {
+      final var order = new Integer[bounds.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Double.compare(bounds.get(a), bounds.get(b)));
+      final var sortedBounds = new double[order.length];
+      final var sortedRules = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        sortedBounds[i] = bounds.get(order[i]);
+        sortedRules[i] = rules.get(order[i]);
+      }
+      return new Sorted(sortedBounds, sortedRules);
+    }
+  }
+
+  /**
+   * Rules sorted by the numeric bound they compare a path to.
+   *
+   * @param bounds the bounds, in ascending order
+   * @param rules the rule at the position of each bound
+   */
+  private record Sorted(double[] bounds, int[] rules) {
+    // The position of the first bound that is greater than the value, or at least the value
+    int search(final double value, final boolean inclusive) {
+      int low = 0;
+      int high = bounds.length;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        final int cmp = Double.compare(bounds[middle], value);
+        if (cmp < 0 || (cmp == 0 && inclusive)) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    void set(final BitSet candidates, final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        candidates.set(rules[i]);
+      }
+    }
+  }
+
+  /** A character trie of the prefixes that rules test a path for. */
+  private static final class Trie {
+    private final Map<Character, Trie> children = new HashMap<>();
+    private final List<Integer> rules = new ArrayList<>();
+
+    void add(final String prefix, final int rule) {
+      var node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Trie());
+      }
+      node.rules.add(rule);
+    }
+
+    void collect(final BitSet all) {
+      rules.forEach(all::set);
+      children.values().forEach(child -> child.collect(all));
+    }
+
+    // Marks the rules whose prefix starts the text
+    void match(final String text, final BitSet candidates) {
+      var node = this;
+      for (int i = 0; node != null; i++) {
+        node.rules.forEach(candidates::set);
+        node = i < text.length() ? node.children.get(text.charAt(i)) : null;
+      }
+    }
+  }
+
+  /** The indexes of the rules that compare one path to literals. */
+  private record Path(
+      Node node,
+      BitSet all,
+      Map<Object, int[]> equal,
+      Sorted exact,
+      Sorted lower,
+      Sorted upper,
+      Trie prefixes) {
+    void candidates(final Frame frame, final BitSet candidates) {
+      final Object value;
+      try {
+        value = node.evaluate(frame);
+      } catch (final RuntimeException e) {
+        // Every rule reports the failure when it is evaluated
+        candidates.or(all);
+        return;
+      }
+      if (value instanceof String || value instanceof Boolean) {
+        final var rules = equal.get(value);
+        if (rules != null) {
+          for (final int rule : rules) {
+            candidates.set(rule);
+          }
+        }
+      }
+      if (value instanceof Number number) {
+        final var v = normalize(number.doubleValue());
+        // Bounds compare inclusively, since integers may lose precision as doubles
+        exact.set(candidates, exact.search(v, false), exact.search(v, true));
+        lower.set(candidates, 0, lower.search(v, true));
+        upper.set(candidates, upper.search(v, false), upper.rules.length);
+      } else {
+        // Comparisons of other values are left to the rules themselves
+        exact.set(candidates, 0, exact.rules.length);
+        lower.set(candidates, 0, lower.rules.length);
+        upper.set(candidates, 0, upper.rules.length);
+      }
+      if (value instanceof String text) {
+        prefixes.match(text, candidates);
+      } else {
+        prefixes.collect(candidates);
+      }
+    }
+  }
+}
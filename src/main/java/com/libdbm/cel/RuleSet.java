@@ -0,0 +1,140 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.Expression;
+import com.libdbm.cel.parser.ParseError;
+import com.libdbm.cel.parser.Parser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of CEL rules compiled together and evaluated against the same variables.
+ *
+ * <p>Each rule is a CEL expression identified by a string ID. A rule matches when it evaluates to
+ * {@code true}; any other result, including values that are not bools, does not match. Rules are
+ * always compiled to closures, as with {@link Engine#COMPILED}.
+ *
+ * <p>Evaluating a rule set is cheaper than evaluating every rule as a separate {@link Program}:
+ * each variable is resolved once for all rules, and subexpressions that appear in several rules,
+ * such as {@code user.tier == "gold"}, are computed at most once per evaluation. Shared
+ * subexpressions are still evaluated lazily, so a rule that short-circuits never computes the
+ * parts it skips. Calls to custom functions and Java methods may have side effects and are never
+ * shared.
+ *
+ * <p>Rules of the form {@code field == "value" && ...}, {@code amount > 1000 && ...} or {@code
+ * name.startsWith("prefix") && ...} are also indexed by the field and literal of their first
+ * comparison. Only the rules whose first comparison can hold are evaluated, so the cost of an
+ * evaluation grows with the number of candidate rules rather than with the size of the set.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * final RuleSet rules = RuleSet.compile(Map.of(
+ *     "gold-discount", "user.tier == \"gold\" && cart.total > 100",
+ *     "gold-shipping", "user.tier == \"gold\" && cart.weight < 20"));
+ * final List<String> matched = rules.evaluate(variables);
+ * }</pre>
+ *
+ * <p>Rule sets are safe to evaluate from multiple threads concurrently.
+ */
+public final class RuleSet {
+  private final String[] ids;
+  private final Node[] rules;
+  private final RuleIndex index;
+  private final int slots;
+
+  private RuleSet(
+      final String[] ids, final Node[] rules, final RuleIndex index, final int slots) {
+    this.ids = ids;
+    this.rules = rules;
+    this.index = index;
+    this.slots = slots;
+  }
+
+  /**
+   * Compiles a rule set using the standard function library.
+   *
+   * @param rules The rule expressions keyed by rule ID; matches are reported in the iteration order
+   *     of this map
+   * @return The compiled rule set
+   * @throws ParseError if any rule is invalid
+   */
+  public static RuleSet compile(final Map<String, String> rules) {
+    return compile(rules, null, null);
+  }
+
+  /**
+   * Compiles a rule set using the given function library and variable declarations.
+   *
+   * @param rules The rule expressions keyed by rule ID; matches are reported in the iteration order
+   *     of this map
+   * @param functions The function library to use, or null for the standard library
+   * @param declarations The declared variable types, or null if all variables are dynamic
+   * @return The compiled rule set
+   * @throws ParseError if any rule is invalid
+   */
+  public static RuleSet compile(
+      final Map<String, String> rules,
+      final Functions functions,
+      final Declarations declarations) {
+    final var optimizer = new Optimizer(functions);
+    final var ids = new String[rules.size()];
+    final var asts = new ArrayList<Expression>(rules.size());
+    for (final var rule : rules.entrySet()) {
+      ids[asts.size()] = rule.getKey();
+      asts.add(optimizer.optimize(new Parser(rule.getValue()).parse()));
+    }
+    final var compiler = new Compiler(functions, declarations);
+    final var nodes = compiler.buildAll(asts);
+    final var index = RuleIndex.build(asts, compiler);
+    return new RuleSet(ids, nodes, index, compiler.slots());
+  }
+
+  /**
+   * Returns the number of rules in this set.
+   *
+   * @return The rule count
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * Evaluates every rule against the given variables.
+   *
+   * @param variables A map of variable names to their values
+   * @return The IDs of the matching rules
+   * @throws EvaluationError if the evaluation of any rule fails
+   */
+  public List<String> evaluate(final Map<String, Object> variables) {
+    return evaluateWith(Activation.of(variables));
+  }
+
+  /**
+   * Evaluates every rule, resolving variables on demand from an activation.
+   *
+   * <p>Each variable is resolved at most once, however many rules reference it.
+   *
+   * @param activation The source of variable values
+   * @return The IDs of the matching rules
+   * @throws EvaluationError if the evaluation of any rule fails
+   */
+  public List<String> evaluateWith(final Activation activation) {
+    final var frame = new Frame(activation, slots);
+    final var candidates = index.candidates(frame);
+    final var matches = new ArrayList<String>();
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      if (matches(rules[i], frame)) {
+        matches.add(ids[i]);
+      }
+    }
+    return matches;
+  }
+
+  private static boolean matches(final Node rule, final Frame frame) {
+    if (rule instanceof Node.OfBoolean predicate) {
+      return predicate.evaluateBoolean(frame);
+    }
+    return Boolean.TRUE.equals(rule.evaluate(frame));
+  }
+}
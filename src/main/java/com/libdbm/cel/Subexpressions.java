@@ -0,0 +1,147 @@
+package com.libdbm.cel;
+
+import com.libdbm.cel.ast.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the subexpressions that occur more than once in a group of expressions.
+ *
+ * <p>Expressions are compared structurally, so {@code user.tier == "gold"} written in two rules
+ * counts as one subexpression occurring twice. Only subexpressions evaluated in the scope of the
+ * variables are considered: bodies of macros and comprehensions see variables bound by their loops
+ * and are skipped. Literals and plain variable references are never reported, since they are no
+ * cheaper to remember than to evaluate.
+ */
+final class Subexpressions implements Expression.Visitor<Void> {
+  private final Map<Expression, Integer> counts = new HashMap<>();
+
+  private Subexpressions() {}
+
+  /**
+   * Returns the subexpressions occurring more than once in the given expressions.
+   *
+   * @param expressions the expressions to search
+   * @return the repeated subexpressions, compared structurally
+   */
+  static Set<Expression> common(final List<Expression> expressions) {
+    final var finder = new Subexpressions();
+    expressions.forEach(finder::visit);
+    final var common = new HashSet<Expression>();
+    finder.counts.forEach(
+        (expr, count) -> {
+          if (count > 1) {
+            common.add(expr);
+          }
+        });
+    return common;
+  }
+
+  private void visit(final Expression expr) {
+    if (expr != null) {
+      expr.accept(this);
+    }
+  }
+
+  private void count(final Expression expr) {
+    counts.merge(expr, 1, Integer::sum);
+  }
+
+  @Override
+  public Void visitLiteral(final Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitIdentifier(final Identifier expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitSelect(final Select expr) {
+    if (expr.operand() != null) {
+      count(expr);
+      visit(expr.operand());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCall(final Call expr) {
+    count(expr);
+    visit(expr.target());
+    if (!expr.isMacro()) {
+      expr.args().forEach(this::visit);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitList(final ListExpression expr) {
+    count(expr);
+    expr.elements().forEach(this::visit);
+    return null;
+  }
+
+  @Override
+  public Void visitMap(final MapExpression expr) {
+    count(expr);
+    for (final MapEntry entry : expr.entries()) {
+      visit(entry.key());
+      visit(entry.value());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitStruct(final Struct expr) {
+    count(expr);
+    for (final FieldInitializer field : expr.fields()) {
+      visit(field.value());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitComprehension(final Comprehension expr) {
+    count(expr);
+    visit(expr.range());
+    visit(expr.initializer());
+    return null;
+  }
+
+  @Override
+  public Void visitUnary(final Unary expr) {
+    count(expr);
+    visit(expr.operand());
+    return null;
+  }
+
+  @Override
+  public Void visitBinary(final Binary expr) {
+    count(expr);
+    visit(expr.left());
+    visit(expr.right());
+    return null;
+  }
+
+  @Override
+  public Void visitConditional(final Conditional expr) {
+    count(expr);
+    visit(expr.condition());
+    visit(expr.then());
+    visit(expr.otherwise());
+    return null;
+  }
+
+  @Override
+  public Void visitIndex(final Index expr) {
+    count(expr);
+    visit(expr.operand());
+    visit(expr.index());
+    return null;
+  }
+}
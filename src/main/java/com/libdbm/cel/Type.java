@@ -0,0 +1,80 @@
+package com.libdbm.cel;
+
+import java.util.List;
+
+/**
+ * A CEL type as declared for a variable or inferred by the {@link Checker}.
+ *
+ * <p>Types describe the runtime representation of a value: {@code int} and {@code uint} values
+ * are {@link Long} or {@link Integer}, {@code double} values are {@link Double} or {@link Float},
+ * and {@code bool} values are {@link Boolean}. {@code dyn} stands for any value whose type is not
+ * known statically.
+ *
+ * @param kind the kind of the type
+ * @param parameters the element type of a list, or the key and value types of a map
+ */
+record Type(Kind kind, List<Type> parameters) {
+  static final Type DYN = new Type(Kind.DYN, List.of());
+  static final Type NULL = new Type(Kind.NULL, List.of());
+  static final Type BOOL = new Type(Kind.BOOL, List.of());
+  static final Type INT = new Type(Kind.INT, List.of());
+  static final Type UINT = new Type(Kind.UINT, List.of());
+  static final Type DOUBLE = new Type(Kind.DOUBLE, List.of());
+  static final Type STRING = new Type(Kind.STRING, List.of());
+  static final Type BYTES = new Type(Kind.BYTES, List.of());
+  static final Type TIMESTAMP = new Type(Kind.TIMESTAMP, List.of());
+  static final Type DURATION = new Type(Kind.DURATION, List.of());
+
+  /** The kinds of types known to the checker. */
+  enum Kind {
+    DYN,
+    NULL,
+    BOOL,
+    INT,
+    UINT,
+    DOUBLE,
+    STRING,
+    BYTES,
+    TIMESTAMP,
+    DURATION,
+    LIST,
+    MAP
+  }
+
+  static Type list(final Type element) {
+    return new Type(Kind.LIST, List.of(element));
+  }
+
+  static Type map(final Type key, final Type value) {
+    return new Type(Kind.MAP, List.of(key, value));
+  }
+
+  /** Returns the element type of a list, or dyn for any other type. */
+  Type element() {
+    return kind == Kind.LIST ? parameters.get(0) : DYN;
+  }
+
+  /** Returns the value type of a map, or dyn for any other type. */
+  Type value() {
+    return kind == Kind.MAP ? parameters.get(1) : DYN;
+  }
+
+  /** Returns whether values of this type are represented as integral Java numbers. */
+  boolean integral() {
+    return kind == Kind.INT || kind == Kind.UINT;
+  }
+
+  /** Returns whether values of this type are numbers. */
+  boolean numeric() {
+    return integral() || kind == Kind.DOUBLE;
+  }
+
+  @Override
+  public String toString() {
+    return switch (kind) {
+      case LIST -> "list<" + parameters.get(0) + ">";
+      case MAP -> "map<" + parameters.get(0) + ", " + parameters.get(1) + ">";
+      default -> kind.name().toLowerCase(java.util.Locale.ROOT);
+    };
+  }
+}
@@ -12,6 +12,16 @@ import java.util.regex.Pattern;
  * <p>Methods are public and static so library users can call them directly.
  */
 public final class Utilities {
+  /**
+   * The maximum number of compiled regular expressions kept by {@link #pattern(String)},
+   * configurable through the {@code com.libdbm.cel.patternCacheSize} system property.
+   */
+  static final int PATTERN_CACHE_SIZE =
+      Integer.getInteger("com.libdbm.cel.patternCacheSize", 256);
+
+  private static final Cache<String, Pattern> PATTERNS = new Cache<>(PATTERN_CACHE_SIZE);
+  private static final Pattern DURATION = Pattern.compile("^(\\d+)([hms])$");
+
   private Utilities() {}
 
   /**
@@ -204,23 +214,32 @@ public final class Utilities {
   }
 
   /**
-   * Checks whether a map contains the given field name.
+   * Checks whether a map or object contains the given field name.
+   *
+   * <p>Objects other than maps have the fields that can be selected from them: record components,
+   * public getters and public fields.
    *
-   * @param target the map-like object to check (must be a Map to return true/false)
+   * @param target the map or object to check
    * @param field the field/key to look for (must be a String)
-   * @return true if target is a Map and contains the given key; false otherwise
+   * @return true if target is a Map containing the given key or an object with the given field;
+   *     false otherwise
    */
   public static boolean has(final Object target, final Object field) {
     if (target instanceof Map<?, ?> map && field instanceof String key) {
       return map.containsKey(key);
     }
+    if (target != null && field instanceof String name) {
+      final var type = target.getClass();
+      return JavaFields.selectable(type) && JavaFields.resolve(type, name) != null;
+    }
     return false;
   }
 
   /**
    * Tests whether the given regular expression matches any part of the text.
    *
-   * <p>Uses Pattern.compile(pattern).matcher(text).find().
+   * <p>Compiled patterns are kept in a bounded cache shared by all expressions, so a pattern is
+   * only compiled again once it has been evicted.
    *
    * @param text the input text
    * @param pattern the regular expression pattern
@@ -228,8 +247,27 @@ public final class Utilities {
    * @throws java.util.regex.PatternSyntaxException if the pattern is invalid
    */
   public static boolean matches(final String text, final String pattern) {
-    final var regex = Pattern.compile(pattern);
-    return regex.matcher(text).find();
+    return pattern(pattern).matcher(text).find();
+  }
+
+  /**
+   * Returns the compiled form of a regular expression, compiling and caching it on first use.
+   *
+   * @param pattern the regular expression pattern
+   * @return the compiled pattern
+   * @throws java.util.regex.PatternSyntaxException if the pattern is invalid
+   */
+  static Pattern pattern(final String pattern) {
+    return PATTERNS.get(pattern, Pattern::compile);
+  }
+
+  /**
+   * Returns a snapshot of the counters of the cache used by {@link #matches(String, String)}.
+   *
+   * @return the current pattern cache statistics
+   */
+  public static CacheStatistics patternCacheStatistics() {
+    return PATTERNS.statistics();
   }
 
   /**
@@ -269,8 +307,7 @@ public final class Utilities {
    * @throws IllegalArgumentException if the format or unit is invalid
    */
   public static Duration duration(final String value) {
-    final var regex = Pattern.compile("^(\\d+)([hms])$");
-    final var matcher = regex.matcher(value);
+    final var matcher = DURATION.matcher(value);
     if (!matcher.matches()) {
       throw new IllegalArgumentException("Invalid duration format: " + value);
     }
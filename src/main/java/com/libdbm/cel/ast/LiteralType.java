@@ -4,7 +4,8 @@ package com.libdbm.cel.ast;
  * Enumeration representing the type of literal values in CEL expressions.
  *
  * <p>This enum defines the various literal types that can appear in CEL expressions, including null
- * values, boolean, integer, unsigned integer, double, string, and bytes literals.
+ * values, boolean, integer, unsigned integer, double, string, and bytes literals, as well as
+ * values precomputed by constant folding.
  */
 public enum LiteralType {
   /**
@@ -58,5 +59,12 @@ public enum LiteralType {
    * <p>This enum constant indicates that a literal value represents a bytes type, which is a
    * sequence of bytes typically used for binary data in expressions.
    */
-  BYTES
+  BYTES,
+  /**
+   * Represents a precomputed value that has no literal syntax of its own.
+   *
+   * <p>This enum constant is never produced by the parser. It marks literals created by constant
+   * folding, such as lists, maps, timestamps and durations computed at compile time.
+   */
+  VALUE
 }
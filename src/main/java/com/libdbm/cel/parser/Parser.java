@@ -2,7 +2,9 @@ package com.libdbm.cel.parser;
 
 import com.libdbm.cel.ast.*;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /** Token types for CEL lexical analysis. */
@@ -56,13 +58,19 @@ enum TokenType {
  *
  * <p>Parses CEL expressions into an Abstract Syntax Tree (AST) represented by Expression objects.
  * The parser handles all CEL literal types, operators, function calls, and complex structures.
+ *
+ * <p>On request, the parser also records the {@link Span} of source text each node was parsed
+ * from, for tools that report on parts of an expression.
  */
 public class Parser {
   private static final Set<String> MACRO_METHODS =
       Set.of("map", "filter", "all", "exists", "existsOne");
 
   private final Lexer lexer;
+  private final Map<Expression, Span> spans;
   private Token current;
+  // The offset after the last consumed token
+  private int end;
 
   /**
    * Constructs a new Parser with the specified input string.
@@ -70,7 +78,18 @@ public class Parser {
    * @param input the input string to be parsed
    */
   public Parser(final String input) {
+    this(input, false);
+  }
+
+  /**
+   * Constructs a new Parser that optionally records the source span of every parsed node.
+   *
+   * @param input the input string to be parsed
+   * @param spans whether to record spans, see {@link #spans()}
+   */
+  public Parser(final String input, final boolean spans) {
     this.lexer = new Lexer(input);
+    this.spans = spans ? new IdentityHashMap<>() : null;
     this.current = lexer.next();
   }
 
@@ -91,15 +110,34 @@ public class Parser {
     return e;
   }
 
+  /**
+   * Returns the source spans of the nodes parsed so far, keyed by node identity.
+   *
+   * <p>A parenthesized expression spans its parentheses as well as its contents.
+   *
+   * @return the spans, or an empty map if the parser does not record spans
+   */
+  public Map<Expression, Span> spans() {
+    return spans != null ? spans : Map.of();
+  }
+
+  private <T extends Expression> T span(final T expr, final int start) {
+    if (spans != null) {
+      spans.put(expr, new Span(start, end));
+    }
+    return expr;
+  }
+
   // expr = conditionalOr ( '?' conditionalOr ':' expr )?
   private Expression parseExpr() {
+    final var start = current.start();
     final var condition = parseConditionalOr();
 
     if (match(TokenType.QUESTION)) {
       final var then = parseConditionalOr();
       expect(TokenType.COLON);
       final var otherwise = parseExpr();
-      return new Conditional(condition, then, otherwise);
+      return span(new Conditional(condition, then, otherwise), start);
     }
 
     return condition;
@@ -107,11 +145,12 @@ public class Parser {
 
   // conditionalOr = conditionalAnd ( '||' conditionalAnd )*
   private Expression parseConditionalOr() {
+    final var start = current.start();
     var left = parseConditionalAnd();
 
     while (match(TokenType.LOGICAL_OR)) {
       final var right = parseConditionalAnd();
-      left = new Binary(BinaryOp.LOGICAL_OR, left, right);
+      left = span(new Binary(BinaryOp.LOGICAL_OR, left, right), start);
     }
 
     return left;
@@ -119,11 +158,12 @@ public class Parser {
 
   // conditionalAnd = relation ( '&&' relation )*
   private Expression parseConditionalAnd() {
+    final var start = current.start();
     var left = parseRelation();
 
     while (match(TokenType.LOGICAL_AND)) {
       final var right = parseRelation();
-      left = new Binary(BinaryOp.LOGICAL_AND, left, right);
+      left = span(new Binary(BinaryOp.LOGICAL_AND, left, right), start);
     }
 
     return left;
@@ -132,13 +172,14 @@ public class Parser {
   // relation = addition ( relop addition )*
   // relop = '<=' | '>=' | '!=' | '==' | '<' | '>' | 'in'
   private Expression parseRelation() {
+    final var start = current.start();
     var left = parseAddition();
 
     while (isRelationalOp(current.type())) {
       final var op = current.type();
       advance();
       final var right = parseAddition();
-      left = new Binary(toBinaryOp(op), left, right);
+      left = span(new Binary(toBinaryOp(op), left, right), start);
     }
 
     return left;
@@ -146,13 +187,15 @@ public class Parser {
 
   // addition = multiplication ( ('+' | '-') multiplication )*
   private Expression parseAddition() {
+    final var start = current.start();
     var left = parseMultiplication();
 
     while (current.type() == TokenType.PLUS || current.type() == TokenType.MINUS) {
       final var op = current.type();
       advance();
       final var right = parseMultiplication();
-      left = new Binary(op == TokenType.PLUS ? BinaryOp.ADD : BinaryOp.SUBTRACT, left, right);
+      final var operator = op == TokenType.PLUS ? BinaryOp.ADD : BinaryOp.SUBTRACT;
+      left = span(new Binary(operator, left, right), start);
     }
 
     return left;
@@ -160,6 +203,7 @@ public class Parser {
 
   // multiplication = unary ( ('*' | '/' | '%') unary )*
   private Expression parseMultiplication() {
+    final var start = current.start();
     var left = parseUnary();
 
     while (current.type() == TokenType.STAR
@@ -177,7 +221,7 @@ public class Parser {
                 throw new ParseError(
                     "Unexpected operator: " + op, current.line(), current.column());
           };
-      left = new Binary(operator, left, right);
+      left = span(new Binary(operator, left, right), start);
     }
 
     return left;
@@ -185,12 +229,13 @@ public class Parser {
 
   // unary = '!'+ member | '-'+ member | member
   private Expression parseUnary() {
+    final var start = current.start();
     if (current.type() == TokenType.BANG) {
       advance();
-      return new Unary(UnaryOp.NOT, parseUnary());
+      return span(new Unary(UnaryOp.NOT, parseUnary()), start);
     } else if (current.type() == TokenType.MINUS) {
       advance();
-      return new Unary(UnaryOp.NEGATE, parseUnary());
+      return span(new Unary(UnaryOp.NEGATE, parseUnary()), start);
     }
 
     return parseMember();
@@ -198,6 +243,7 @@ public class Parser {
 
   // member = primary ( selector | index | fieldCall )*
   private Expression parseMember() {
+    final var start = current.start();
     var expr = parsePrimary();
 
     while (true) {
@@ -211,15 +257,15 @@ public class Parser {
           final var args = parseExprList();
           expect(TokenType.RPAREN);
           final var isMacro = MACRO_METHODS.contains(field);
-          expr = new Call(expr, field, args, isMacro);
+          expr = span(new Call(expr, field, args, isMacro), start);
         } else {
-          expr = new Select(expr, field);
+          expr = span(new Select(expr, field), start);
         }
       } else if (current.type() == TokenType.LBRACKET) {
         advance();
         final Expression index = parseExpr();
         expect(TokenType.RBRACKET);
-        expr = new Index(expr, index);
+        expr = span(new Index(expr, index), start);
       } else {
         break;
       }
@@ -236,6 +282,11 @@ public class Parser {
   //         | '(' expr ')'
   //         | '.' ident callArgs?
   private Expression parsePrimary() {
+    final var start = current.start();
+    return span(primary(), start);
+  }
+
+  private Expression primary() {
     // Check for literals
     if (isLiteralToken(current.type())) {
       return parseLiteral();
@@ -686,6 +737,7 @@ public class Parser {
   }
 
   private void advance() {
+    end = current.end();
     current = lexer.next();
   }
 
@@ -730,6 +782,8 @@ class Lexer {
   private int position;
   private int line;
   private int column;
+  // The offset of the first character of the token being read
+  private int begin;
 
   public Lexer(final String input) {
     this.input = input;
@@ -753,6 +807,10 @@ class Lexer {
     return lookahead.get(count - 1);
   }
 
+  private Token emit(final TokenType type, final String value, final int line, final int column) {
+    return new Token(type, value, line, column, begin, position);
+  }
+
   private void step() {
     if (position >= input.length()) return;
     var ch = input.charAt(position);
@@ -780,9 +838,10 @@ class Lexer {
 
   private Token token() {
     whitespace();
+    begin = position;
 
     if (position >= input.length()) {
-      return new Token(TokenType.EOF, "", line, column);
+      return emit(TokenType.EOF, "", line, column);
     }
 
     final var start = position;
@@ -794,88 +853,88 @@ class Lexer {
     switch (ch) {
       case '(':
         step();
-        return new Token(TokenType.LPAREN, "(", line, column);
+        return emit(TokenType.LPAREN, "(", line, column);
       case ')':
         step();
-        return new Token(TokenType.RPAREN, ")", line, column);
+        return emit(TokenType.RPAREN, ")", line, column);
       case '[':
         step();
-        return new Token(TokenType.LBRACKET, "[", line, column);
+        return emit(TokenType.LBRACKET, "[", line, column);
       case ']':
         step();
-        return new Token(TokenType.RBRACKET, "]", line, column);
+        return emit(TokenType.RBRACKET, "]", line, column);
       case '{':
         step();
-        return new Token(TokenType.LBRACE, "{", line, column);
+        return emit(TokenType.LBRACE, "{", line, column);
       case '}':
         step();
-        return new Token(TokenType.RBRACE, "}", line, column);
+        return emit(TokenType.RBRACE, "}", line, column);
       case ',':
         step();
-        return new Token(TokenType.COMMA, ",", line, column);
+        return emit(TokenType.COMMA, ",", line, column);
       case '.':
         step();
-        return new Token(TokenType.DOT, ".", line, column);
+        return emit(TokenType.DOT, ".", line, column);
       case ':':
         step();
-        return new Token(TokenType.COLON, ":", line, column);
+        return emit(TokenType.COLON, ":", line, column);
       case '?':
         step();
-        return new Token(TokenType.QUESTION, "?", line, column);
+        return emit(TokenType.QUESTION, "?", line, column);
       case '+':
         step();
-        return new Token(TokenType.PLUS, "+", line, column);
+        return emit(TokenType.PLUS, "+", line, column);
       case '*':
         step();
-        return new Token(TokenType.STAR, "*", line, column);
+        return emit(TokenType.STAR, "*", line, column);
       case '/':
         step();
-        return new Token(TokenType.SLASH, "/", line, column);
+        return emit(TokenType.SLASH, "/", line, column);
       case '%':
         step();
-        return new Token(TokenType.PERCENT, "%", line, column);
+        return emit(TokenType.PERCENT, "%", line, column);
     }
 
     // Multi-character operators
     if (ch == '&' && peekchar() == '&') {
       forward(2);
-      return new Token(TokenType.LOGICAL_AND, "&&", line, column);
+      return emit(TokenType.LOGICAL_AND, "&&", line, column);
     }
     if (ch == '|' && peekchar() == '|') {
       forward(2);
-      return new Token(TokenType.LOGICAL_OR, "||", line, column);
+      return emit(TokenType.LOGICAL_OR, "||", line, column);
     }
     if (ch == '=' && peekchar() == '=') {
       forward(2);
-      return new Token(TokenType.EQ, "==", line, column);
+      return emit(TokenType.EQ, "==", line, column);
     }
     if (ch == '!' && peekchar() == '=') {
       forward(2);
-      return new Token(TokenType.NE, "!=", line, column);
+      return emit(TokenType.NE, "!=", line, column);
     }
     if (ch == '<' && peekchar() == '=') {
       forward(2);
-      return new Token(TokenType.LE, "<=", line, column);
+      return emit(TokenType.LE, "<=", line, column);
     }
     if (ch == '>' && peekchar() == '=') {
       forward(2);
-      return new Token(TokenType.GE, ">=", line, column);
+      return emit(TokenType.GE, ">=", line, column);
     }
     if (ch == '<') {
       step();
-      return new Token(TokenType.LT, "<", line, column);
+      return emit(TokenType.LT, "<", line, column);
     }
     if (ch == '>') {
       step();
-      return new Token(TokenType.GT, ">", line, column);
+      return emit(TokenType.GT, ">", line, column);
     }
     if (ch == '!') {
       step();
-      return new Token(TokenType.BANG, "!", line, column);
+      return emit(TokenType.BANG, "!", line, column);
     }
     if (ch == '-') {
       step();
-      return new Token(TokenType.MINUS, "-", line, column);
+      return emit(TokenType.MINUS, "-", line, column);
     }
 
     // String literals
@@ -934,7 +993,7 @@ class Lexer {
               && input.charAt(this.position + 1) == quote
               && input.charAt(this.position + 2) == quote) {
             forward(3);
-            return new Token(
+            return emit(
                 TokenType.STRING, input.substring(position, this.position), start, column);
           }
           step();
@@ -951,7 +1010,7 @@ class Lexer {
       final var ch = input.charAt(this.position);
       if (ch == quote) {
         step();
-        return new Token(TokenType.STRING, input.substring(position, this.position), start, column);
+        return emit(TokenType.STRING, input.substring(position, this.position), start, column);
       }
       if (ch == '\\' && !isRaw && this.position + 1 < input.length()) {
         // Skip escape sequence as two chars
@@ -973,7 +1032,7 @@ class Lexer {
       final var ch = input.charAt(position);
       if (ch == quote) {
         step();
-        return new Token(TokenType.BYTES, input.substring(offset, position), line, column);
+        return emit(TokenType.BYTES, input.substring(offset, position), line, column);
       }
       if (ch == '\\' && position + 1 < input.length()) {
         forward(2); // Skip escape sequence
@@ -1000,11 +1059,11 @@ class Lexer {
           final var suffix = input.charAt(position);
           if (suffix == 'u' || suffix == 'U') {
             step();
-            return new Token(TokenType.UINT, input.substring(offset, position), line, column);
+            return emit(TokenType.UINT, input.substring(offset, position), line, column);
           }
         }
 
-        return new Token(TokenType.INT, input.substring(offset, position), line, column);
+        return emit(TokenType.INT, input.substring(offset, position), line, column);
       }
     }
 
@@ -1045,12 +1104,12 @@ class Lexer {
       final var suffix = input.charAt(position);
       if (suffix == 'u' || suffix == 'U') {
         step();
-        return new Token(TokenType.UINT, input.substring(offset, position), line, column);
+        return emit(TokenType.UINT, input.substring(offset, position), line, column);
       }
     }
 
     final TokenType type = isDouble ? TokenType.DOUBLE : TokenType.INT;
-    return new Token(type, input.substring(offset, position), line, column);
+    return emit(type, input.substring(offset, position), line, column);
   }
 
   private Token identifier(final int line, final int column, final int offset) {
@@ -1065,7 +1124,7 @@ class Lexer {
     final var value = input.substring(offset, position);
     final var type = typeOf(value);
 
-    return new Token(type, value, line, column);
+    return emit(type, value, line, column);
   }
 
   private TokenType typeOf(final String value) {
@@ -1101,8 +1160,13 @@ class Lexer {
   }
 }
 
-/** Token representation for lexical analysis. */
-record Token(TokenType type, String value, int line, int column) {
+/**
+ * Token representation for lexical analysis.
+ *
+ * @param start the offset of the first character of the token in the input
+ * @param end the offset after the last character of the token in the input
+ */
+record Token(TokenType type, String value, int line, int column, int start, int end) {
 
   @Override
   public String toString() {
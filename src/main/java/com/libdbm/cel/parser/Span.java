@@ -0,0 +1,44 @@
+package com.libdbm.cel.parser;
+
+/**
+ * The range of source text an expression was parsed from.
+ *
+ * @param start the offset of the first character of the expression
+ * @param end the offset after the last character of the expression
+ */
+public record Span(int start, int end) {
+  /**
+   * Returns the source text of this span.
+   *
+   * @param source the source the span refers to
+   * @return the text between the start and end offsets
+   */
+  public String text(final String source) {
+    return source.substring(start, end);
+  }
+
+  /**
+   * Formats the span as {@code line:column-line:column}, with lines and columns counted from 1. The
+   * end position is the one just past the last character.
+   *
+   * @param source the source the span refers to
+   * @return the formatted span
+   */
+  public String format(final String source) {
+    return position(source, start) + "-" + position(source, end);
+  }
+
+  private static String position(final String source, final int offset) {
+    var line = 1;
+    var column = 1;
+    for (int i = 0; i < offset; i++) {
+      if (source.charAt(i) == '\n') {
+        line++;
+        column = 1;
+      } else {
+        column++;
+      }
+    }
+    return line + ":" + column;
+  }
+}
@@ -0,0 +1,254 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.abort;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.libdbm.cel.ast.Comprehension;
+import com.libdbm.cel.ast.Expression;
+import com.libdbm.cel.parser.Parser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the bytes allocated by one evaluation of each interpreter path and standard function,
+ * and fails when any of them allocates noticeably more than the checked-in baseline.
+ *
+ * <p>Allocation is read from the current thread's allocation counter after the evaluation has been
+ * warmed up, so it reflects the steady state of a long-running service. The measurements of the
+ * last run are written to {@code target/allocation-report.properties}. After an intended change in
+ * allocation, regenerate the baseline with {@code mvn test -Dtest=AllocationTests
+ * -Dcom.libdbm.cel.allocationBaseline=update}.
+ *
+ * <p>Escape analysis, and so allocation, differs between JDK vendors and versions. The baseline
+ * records the JDK it was measured on, and the comparison is skipped on any other JDK. Whether the
+ * gate was enforced is written to the report as {@code gate} and a skip is printed to the output.
+ */
+class AllocationTests {
+  private static final String BASELINE = "allocation-baseline.properties";
+  private static final Path BASELINE_SOURCE =
+      Path.of("src/test/resources/com/libdbm/cel", BASELINE);
+  private static final Path REPORT = Path.of("target/allocation-report.properties");
+  private static final String JDK =
+      System.getProperty("java.vm.vendor") + " " + Runtime.version().feature();
+
+  // A case regresses when it allocates more than the baseline by this factor plus the slack
+  private static final double TOLERANCE = 1.25;
+  private static final long SLACK = 64;
+
+  private static final int WARMUP = 20_000;
+  private static final int ROUNDS = 5;
+  private static final int ITERATIONS = 1_000;
+
+  private static final Map<String, Object> VARIABLES =
+      Map.of(
+          "i", 7L,
+          "j", 3L,
+          "d", 2.5,
+          "b", true,
+          "s", "  Hello World  ",
+          "digits", "2024-01-01",
+          "list", List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L),
+          "m", Map.of("a", 1L, "b", 2L),
+          "ts", Instant.parse("2024-01-01T10:20:30Z"));
+
+  /** The cases, named by the interpreter path or function they exercise. */
+  static final Map<String, String> CASES = new LinkedHashMap<>();
+
+  static {
+    CASES.put("literal", "42");
+    CASES.put("identifier", "i");
+    CASES.put("select", "m.a");
+    CASES.put("index.list", "list[3]");
+    CASES.put("index.map", "m[\"b\"]");
+    CASES.put("unary.negate", "-i");
+    CASES.put("unary.not", "!b");
+    CASES.put("binary.add", "i + j");
+    CASES.put("binary.multiply.double", "d * 2.0");
+    CASES.put("binary.concat", "s + \"!\"");
+    CASES.put("binary.less", "i < j");
+    CASES.put("binary.equal", "s == \"Hello\"");
+    CASES.put("binary.and", "b && i > 1");
+    CASES.put("binary.in.list", "j in list");
+    CASES.put("binary.in.map", "\"a\" in m");
+    CASES.put("conditional", "b ? i : j");
+    CASES.put("list", "[i, j]");
+    CASES.put("map", "{\"k\": i}");
+    CASES.put("struct", "Msg{value: i}");
+    CASES.put("struct.nested", "Msg{value: i, inner: Inner{text: s, values: [i, j]}}");
+    CASES.put("struct.select", "Msg{value: i, inner: Inner{text: s}}.inner.text");
+    CASES.put("macro.map", "list.map(x, x * 2)");
+    CASES.put("macro.filter", "list.filter(x, x > 5)");
+    CASES.put("macro.all", "list.all(x, x > 0)");
+    CASES.put("macro.exists", "list.exists(x, x == 10)");
+    CASES.put("macro.existsOne", "list.existsOne(x, x == 5)");
+    CASES.put("function.size", "size(list)");
+    CASES.put("function.int", "int(d)");
+    CASES.put("function.uint", "uint(i)");
+    CASES.put("function.double", "double(i)");
+    CASES.put("function.string", "string(i)");
+    CASES.put("function.bool", "bool(\"true\")");
+    CASES.put("function.type", "type(i)");
+    CASES.put("function.has", "has(m, \"a\")");
+    CASES.put("function.matches", "matches(digits, \"^[0-9-]+$\")");
+    CASES.put("function.timestamp", "timestamp(digits + \"T00:00:00Z\")");
+    CASES.put("function.duration", "duration(string(i) + \"m\")");
+    CASES.put("function.getDate", "getDate(ts)");
+    CASES.put("function.getMonth", "getMonth(ts)");
+    CASES.put("function.getFullYear", "getFullYear(ts)");
+    CASES.put("function.getHours", "getHours(ts)");
+    CASES.put("function.getMinutes", "getMinutes(ts)");
+    CASES.put("function.getSeconds", "getSeconds(ts)");
+    CASES.put("function.max", "max(i, j, 5)");
+    CASES.put("function.min", "min(i, j, 5)");
+    CASES.put("method.contains", "s.contains(\"World\")");
+    CASES.put("method.startsWith", "s.startsWith(\"  H\")");
+    CASES.put("method.endsWith", "s.endsWith(\"  \")");
+    CASES.put("method.toLowerCase", "s.toLowerCase()");
+    CASES.put("method.toUpperCase", "s.toUpperCase()");
+    CASES.put("method.trim", "s.trim()");
+    CASES.put("method.replace", "s.replace(\"World\", \"CEL\")");
+    CASES.put("method.split", "digits.split(\"-\")");
+    CASES.put("method.size", "list.size()");
+    CASES.put("method.java", "s.length()");
+  }
+
+  /** Cases the parser cannot produce, such as comprehensions, built as syntax trees. */
+  static final Map<String, Expression> TREES = new LinkedHashMap<>();
+
+  static {
+    TREES.put(
+        "comprehension.sum",
+        new Comprehension(
+            "n", parse("list"), "acc", parse("0"), parse("n > 2"), parse("acc + n"), parse("acc")));
+    TREES.put(
+        "comprehension.collect",
+        new Comprehension(
+            "n",
+            parse("list"),
+            "acc",
+            parse("[]"),
+            parse("n % 2 == 0"),
+            parse("acc + [n * j]"),
+            parse("size(acc)")));
+  }
+
+  private static volatile Object sink;
+
+  @Test
+  void testAllocationDoesNotRegress() throws IOException {
+    final var threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(
+        threads instanceof com.sun.management.ThreadMXBean bean
+            && bean.isThreadAllocatedMemorySupported()
+            && bean.isThreadAllocatedMemoryEnabled(),
+        "Thread allocation counters are not available");
+    final var bean = (com.sun.management.ThreadMXBean) threads;
+
+    final var measured = new TreeMap<String, Long>();
+    for (final Engine engine : List.of(Engine.INTERPRETED, Engine.COMPILED)) {
+      final var prefix = engine.name().toLowerCase(Locale.ROOT) + ".";
+      for (final var entry : CASES.entrySet()) {
+        final var program = CEL.compile(entry.getValue(), null, engine);
+        measured.put(prefix + entry.getKey(), allocation(bean, program));
+      }
+      for (final var entry : TREES.entrySet()) {
+        final var program = new Program(entry.getValue(), new StandardFunctions(), engine);
+        measured.put(prefix + entry.getKey(), allocation(bean, program));
+      }
+    }
+    write(measured, REPORT, "Bytes allocated per evaluation");
+
+    if ("update".equals(System.getProperty("com.libdbm.cel.allocationBaseline"))) {
+      write(measured, BASELINE_SOURCE, "Baseline of bytes allocated per evaluation");
+      return;
+    }
+
+    final var baseline = new Properties();
+    try (InputStream in = AllocationTests.class.getResourceAsStream(BASELINE)) {
+      if (in == null) {
+        skip("no allocation baseline");
+      }
+      baseline.load(in);
+    }
+    final var recorded = baseline.getProperty("jdk");
+    if (!JDK.equals(recorded)) {
+      skip("baseline was measured on " + recorded + ", not on " + JDK);
+    }
+    report("gate=enforced");
+    final var regressions = new ArrayList<String>();
+    measured.forEach(
+        (name, bytes) -> {
+          final var expected = baseline.getProperty(name);
+          if (expected == null) {
+            regressions.add(name + ": no baseline, measured " + bytes + " bytes");
+            return;
+          }
+          final var limit = (long) (Long.parseLong(expected) * TOLERANCE) + SLACK;
+          if (bytes > limit) {
+            regressions.add(name + ": " + bytes + " bytes, baseline " + expected + " bytes");
+          }
+        });
+    assertTrue(regressions.isEmpty(), "Allocation regressed:\n" + String.join("\n", regressions));
+  }
+
+  // The fewest bytes allocated per evaluation over several rounds, once the program is warm
+  private static long allocation(
+      final com.sun.management.ThreadMXBean bean, final Program program) {
+    for (int i = 0; i < WARMUP; i++) {
+      sink = program.evaluate(VARIABLES);
+    }
+    var best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      final var before = bean.getCurrentThreadAllocatedBytes();
+      for (int i = 0; i < ITERATIONS; i++) {
+        sink = program.evaluate(VARIABLES);
+      }
+      final var after = bean.getCurrentThreadAllocatedBytes();
+      best = Math.min(best, (after - before) / ITERATIONS);
+    }
+    return best;
+  }
+
+  // Records in the report and the test output that the gate was not enforced, and skips the test
+  private static void skip(final String reason) throws IOException {
+    report("gate=skipped, " + reason);
+    System.err.println("Allocation gate skipped: " + reason);
+    abort(reason);
+  }
+
+  private static void report(final String line) throws IOException {
+    Files.writeString(REPORT, line + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+  }
+
+  private static Expression parse(final String expression) {
+    return new Parser(expression).parse();
+  }
+
+  private static void write(final Map<String, Long> values, final Path path, final String title)
+      throws IOException {
+    Files.createDirectories(path.getParent());
+    try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      out.write("# " + title + "\n");
+      out.write("jdk=" + JDK + "\n");
+      for (final var entry : values.entrySet()) {
+        out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+      }
+    }
+  }
+}
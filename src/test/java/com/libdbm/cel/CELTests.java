@@ -3,9 +3,19 @@ package com.libdbm.cel;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.libdbm.cel.parser.ParseError;
+import com.libdbm.cel.parser.Parser;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -390,6 +400,152 @@ class CELTests {
       assertEquals(7L, program.evaluate(Map.of("x", 0, "y", 7)));
     }
 
+    @Test
+    void resolvesActivationVariablesLazily() {
+      for (final Engine engine : Engine.values()) {
+        final var calls = new HashMap<String, Integer>();
+        final Map<String, java.util.function.Supplier<?>> suppliers =
+            Map.of(
+                "x", () -> count(calls, "x", 3L),
+                "y", () -> count(calls, "y", 4L),
+                "unused", () -> count(calls, "unused", 0L));
+        final Program program = new CEL(null, engine).compile("x * x + [1, 2].map(i, i * x)[1]");
+
+        assertEquals(15L, program.evaluateWith(Activation.lazy(suppliers)), engine.name());
+        assertEquals(Map.of("x", 1), calls, engine.name());
+      }
+    }
+
+    @Test
+    void acceptsNullVariables() {
+      // The activation overloads have their own names, so a null map still resolves unambiguously
+      assertEquals(3L, cel.compile("1 + 2").evaluate(null));
+      assertTrue(cel.compile("true").evaluateBoolean(null));
+      assertEquals(3L, new Interpreter(null, null).evaluate(new Parser("1 + 2").parse()));
+    }
+
+    @Test
+    void throwsForUndefinedActivationVariables() {
+      final Program program = cel.compile("x + 1");
+      assertThrows(EvaluationError.class, () -> program.evaluateWith(Activation.lazy(Map.of())));
+    }
+
+    private Object count(final Map<String, Integer> calls, final String name, final Object value) {
+      calls.merge(name, 1, Integer::sum);
+      return value;
+    }
+
+    @Test
+    void evaluatesToPrimitives() {
+      final var declarations = Declarations.parse("x:int, y:double");
+      for (final Engine engine : Engine.values()) {
+        final var variables = Map.<String, Object>of("x", 3L, "y", 1.5);
+
+        assertTrue(CEL.compile("x + 1 > y", null, engine).evaluateBoolean(variables));
+        assertEquals(7L, CEL.compile("x * 2 + 1", null, engine).evaluateLong(variables));
+        assertEquals(4.5, CEL.compile("x * y", null, engine).evaluateDouble(variables));
+        assertTrue(CEL.compile("x + 1 > y", null, engine, declarations).evaluateBoolean(variables));
+        assertEquals(
+            7L, CEL.compile("x * 2 + 1", null, engine, declarations).evaluateLong(variables));
+        assertEquals(
+            4.5, CEL.compile("x * y", null, engine, declarations).evaluateDouble(variables));
+      }
+    }
+
+    @Test
+    void throwsForPrimitiveResultsOfTheWrongType() {
+      for (final Engine engine : Engine.values()) {
+        final Program program = CEL.compile("x * 2", null, engine);
+        final var error =
+            assertThrows(EvaluationError.class, () -> program.evaluateBoolean(Map.of("x", 2L)));
+        assertEquals("Expected bool value but got int", error.getMessage());
+        assertThrows(EvaluationError.class, () -> program.evaluateDouble(Map.of("x", 2L)));
+        assertEquals(4L, program.evaluateLong(Map.of("x", 2)));
+      }
+    }
+
+    @Test
+    void evaluatesBatches() {
+      final List<Map<String, Object>> batch = new ArrayList<>();
+      for (long i = 0; i < 5; i++) {
+        batch.add(Map.of("x", i, "name", "n" + i));
+      }
+      for (final Engine engine : Engine.values()) {
+        final Program program = CEL.compile("matches(name, \"[13]\") ? x * 10 : x", null, engine);
+        assertArrayEquals(new Object[] {0L, 10L, 2L, 30L, 4L}, program.evaluateAll(batch));
+
+        // Results can be streamed into a reused array
+        final var results = new Object[8];
+        assertEquals(2, program.evaluateAll(batch.subList(3, 5), results));
+        assertArrayEquals(new Object[] {30L, 4L, null}, Arrays.copyOf(results, 3));
+
+        final var small = new Object[4];
+        assertThrows(IllegalArgumentException.class, () -> program.evaluateAll(batch, small));
+
+        final var error =
+            assertThrows(
+                EvaluationError.class, () -> program.evaluateAll(List.of(Map.of("name", "1"))));
+        assertEquals("Undefined variable: x", error.getMessage());
+      }
+    }
+
+    @Test
+    void evaluatesBatchesInParallel() throws InterruptedException {
+      final List<Map<String, Object>> batch = new ArrayList<>();
+      for (long i = 0; i < 10_000; i++) {
+        batch.add(Map.of("x", i, "items", List.of(i, i + 1)));
+      }
+      final var executor = Executors.newFixedThreadPool(3);
+      try {
+        for (final Engine engine : Engine.values()) {
+          final Program program = CEL.compile("items.map(i, i * 2)[1] - x", null, engine);
+          final var expected = program.evaluateAll(batch);
+          assertArrayEquals(expected, program.evaluateParallel(batch));
+          assertArrayEquals(expected, program.evaluateParallel(batch, executor));
+          assertArrayEquals(new Object[0], program.evaluateParallel(List.of(), executor));
+
+          final List<Map<String, Object>> failing = new ArrayList<>(batch);
+          failing.set(7_500, Map.of("x", 1L));
+          final var error =
+              assertThrows(
+                  EvaluationError.class, () -> program.evaluateParallel(failing, executor));
+          assertEquals("Undefined variable: items", error.getMessage());
+        }
+      } finally {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      }
+    }
+
+    @Test
+    void cachesProgramsAcrossEvalCalls() {
+      final var expression = "cached + 1 + 0 * " + System.nanoTime();
+      final var before = CEL.cacheStatistics();
+
+      assertEquals(2L, cel.eval(expression, Map.of("cached", 1L)));
+      assertEquals(3L, cel.eval(expression, Map.of("cached", 2L)));
+      assertEquals(4L, cel.eval(expression, Map.of("cached", 3L)));
+
+      final var after = CEL.cacheStatistics();
+      assertTrue(after.misses() - before.misses() >= 1);
+      assertTrue(after.hits() - before.hits() >= 2);
+    }
+
+    @Test
+    void sharesCachedProgramsAcrossEvaluators() {
+      final var expression = "shared + 1 + 0 * " + System.nanoTime();
+      final var before = CEL.cacheStatistics();
+
+      for (int i = 0; i < 5; i++) {
+        assertEquals(2L, new CEL().eval(expression, Map.of("shared", 1L)));
+      }
+      assertEquals(2L, CEL.eval(expression, new StandardFunctions(), Map.of("shared", 1L)));
+
+      final var after = CEL.cacheStatistics();
+      assertEquals(1, after.misses() - before.misses());
+      assertEquals(5, after.hits() - before.hits());
+    }
+
     @Test
     void throwsParseErrorsForInvalidExpressions() {
       assertThrows(ParseError.class, () -> cel.compile("x +"));
@@ -719,6 +875,46 @@ class CELTests {
       }
     }
 
+    @Nested
+    class IterableTargets {
+      @Test
+      void iteratesCollectionsMapsAndArrays() {
+        final var variables = new HashMap<String, Object>();
+        variables.put("set", new LinkedHashSet<>(List.of(3L, 1L, 2L)));
+        variables.put("map", new LinkedHashMap<>(Map.of("a", 1L)));
+        variables.put("objects", new Object[] {"x", 2L});
+        variables.put("longs", new long[] {1L, 2L, 3L});
+        variables.put("ints", new int[] {4, 5});
+        variables.put("doubles", new double[] {0.5, 1.5});
+        variables.put("flags", new boolean[] {true, false});
+        variables.put("iterable", (Iterable<Long>) () -> List.of(7L, 8L).iterator());
+
+        for (final Engine engine : Engine.values()) {
+          final Function<String, Object> eval =
+              expression -> CEL.compile(expression, null, engine).evaluate(variables);
+          assertEquals(List.of(6L, 2L, 4L), eval.apply("set.map(x, x * 2)"));
+          assertEquals(List.of("a"), eval.apply("map.filter(k, k == \"a\")"));
+          assertEquals(true, eval.apply("map.all(k, map[k] == 1)"));
+          assertEquals(List.of("x"), eval.apply("objects.filter(o, type(o) == \"string\")"));
+          assertEquals(List.of(2L, 3L), eval.apply("longs.filter(n, n > 1)"));
+          assertEquals(List.of(8L, 10L), eval.apply("ints.map(n, n * 2)"));
+          assertEquals(true, eval.apply("doubles.existsOne(d, d > 1.0)"));
+          assertEquals(false, eval.apply("flags.all(f, f)"));
+          assertEquals(List.of(16L), eval.apply("iterable.filter(n, n > 7).map(n, n * 2)"));
+        }
+      }
+
+      @Test
+      void consumesStreams() {
+        for (final Engine engine : Engine.values()) {
+          final var program = CEL.compile("items.map(i, i + 1)", null, engine);
+          assertEquals(List.of(2L, 3L), program.evaluate(Map.of("items", Stream.of(1L, 2L))));
+          assertEquals(
+              List.of(2L, 3L), program.evaluate(Map.of("items", LongStream.of(1L, 2L))));
+        }
+      }
+    }
+
     @Nested
     class ErrorHandling {
       @Test
@@ -0,0 +1,62 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class CacheTests {
+  @Test
+  void testHitsAndMisses() {
+    final var cache = new Cache<String, Integer>(4);
+    final var loads = new AtomicInteger();
+
+    assertEquals(1, cache.get("a", key -> loads.incrementAndGet()));
+    assertEquals(1, cache.get("a", key -> loads.incrementAndGet()));
+    assertEquals(2, cache.get("b", key -> loads.incrementAndGet()));
+
+    assertEquals(new CacheStatistics(1, 2, 0, 2), cache.statistics());
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsed() {
+    final var cache = new Cache<String, String>(2);
+    cache.get("a", key -> key);
+    cache.get("b", key -> key);
+    cache.get("a", key -> key);
+    cache.get("c", key -> key);
+
+    // "b" was the least recently used entry and is the only one that must be reloaded
+    assertEquals("a", cache.get("a", String::toUpperCase));
+    assertEquals("c", cache.get("c", String::toUpperCase));
+    assertEquals("B", cache.get("b", String::toUpperCase));
+    assertEquals(2, cache.statistics().evictions());
+    assertEquals(2, cache.statistics().size());
+  }
+
+  @Test
+  void testFailedLoadsAreNotCached() {
+    final var cache = new Cache<String, String>(2);
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            cache.get(
+                "a",
+                key -> {
+                  throw new IllegalStateException();
+                }));
+    assertEquals("a", cache.get("a", key -> key));
+    assertEquals(0, cache.statistics().hits());
+  }
+
+  @Test
+  void testStaysWithinCapacity() {
+    final var cache = new Cache<Integer, Integer>(1000);
+    for (int i = 0; i < 5000; i++) {
+      cache.get(i, key -> key);
+    }
+    assertEquals(1000, cache.statistics().size());
+    assertEquals(4000, cache.statistics().evictions());
+  }
+}
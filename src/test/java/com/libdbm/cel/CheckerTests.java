@@ -0,0 +1,97 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.libdbm.cel.ast.Expression;
+import com.libdbm.cel.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+class CheckerTests {
+  private static final Declarations DECLARATIONS =
+      Declarations.parse(
+          "x:int, y:double, n:uint, flag:bool, name:string, nums:list<int>,"
+              + " user:map<string, dyn>, scores:map<string, double>");
+
+  @Test
+  void testParsesDeclarations() {
+    assertEquals(
+        "x:int, y:double, n:uint, flag:bool, name:string, nums:list<int>,"
+            + " user:map<string, dyn>, scores:map<string, double>",
+        DECLARATIONS.toString());
+    assertEquals(Type.map(Type.STRING, Type.list(Type.INT)), type("m", "m:map<string,list<int>>"));
+    assertEquals(Type.DYN, DECLARATIONS.type("undeclared"));
+    assertEquals("", Declarations.parse("  ").toString());
+  }
+
+  @Test
+  void testRejectsMalformedDeclarations() {
+    assertThrows(IllegalArgumentException.class, () -> Declarations.parse("x"));
+    assertThrows(IllegalArgumentException.class, () -> Declarations.parse("x:integer"));
+    assertThrows(IllegalArgumentException.class, () -> Declarations.parse("x:list<int"));
+    assertThrows(IllegalArgumentException.class, () -> Declarations.parse("x:int y:int"));
+    assertThrows(IllegalArgumentException.class, () -> Declarations.parse("x:int, x:double"));
+  }
+
+  @Test
+  void testInfersArithmetic() {
+    assertEquals(Type.INT, infer("x + 1"));
+    assertEquals(Type.INT, infer("x * n % 3"));
+    assertEquals(Type.UINT, infer("n + 1u"));
+    assertEquals(Type.DOUBLE, infer("x + y"));
+    assertEquals(Type.DOUBLE, infer("x / 2"));
+    assertEquals(Type.DOUBLE, infer("-y"));
+    assertEquals(Type.STRING, infer("name + x"));
+    assertEquals(Type.DYN, infer("x + user.age"));
+  }
+
+  @Test
+  void testInfersPredicates() {
+    assertEquals(Type.BOOL, infer("x > 1 && y < 2.0"));
+    assertEquals(Type.BOOL, infer("!flag"));
+    assertEquals(Type.BOOL, infer("name.startsWith(\"a\")"));
+    assertEquals(Type.BOOL, infer("nums.exists(i, i > x)"));
+    assertEquals(Type.BOOL, infer("\"a\" in user"));
+  }
+
+  @Test
+  void testInfersCollections() {
+    assertEquals(Type.INT, infer("nums[0]"));
+    assertEquals(Type.DOUBLE, infer("scores.math"));
+    assertEquals(Type.DOUBLE, infer("scores[\"math\"]"));
+    assertEquals(Type.DYN, infer("user.age"));
+    assertEquals(Type.list(Type.INT), infer("nums.map(i, i * 2)"));
+    assertEquals(Type.list(Type.INT), infer("nums.filter(i, i > 2)"));
+    // Macros over maps iterate their keys
+    assertEquals(Type.list(Type.STRING), infer("scores.map(k, k)"));
+    assertEquals(Type.list(Type.STRING), infer("scores.filter(k, scores[k] > 1.0)"));
+    assertEquals(Type.list(Type.DOUBLE), infer("nums.map(i, i * y)"));
+    assertEquals(Type.list(Type.INT), infer("[1, 2, x]"));
+    assertEquals(Type.list(Type.DYN), infer("[1, 2.0]"));
+    assertEquals(Type.INT, infer("flag ? x : 1"));
+    assertEquals(Type.DYN, infer("flag ? x : y"));
+  }
+
+  @Test
+  void testScopesMacroVariables() {
+    // The macro variable shadows the declared variable only inside the macro body
+    assertEquals(Type.list(Type.STRING), infer("[\"a\"].map(x, x + \"b\")"));
+    assertEquals(Type.INT, infer("size([\"a\"].map(x, x)) + x"));
+  }
+
+  @Test
+  void testUsesStandardFunctionTypesOnlyForStandardLibrary() {
+    final Expression expr = new Parser("size(name)").parse();
+    assertEquals(Type.INT, new Checker(DECLARATIONS, true).check(expr).get(expr));
+    assertEquals(Type.DYN, new Checker(DECLARATIONS, false).check(expr).get(expr));
+  }
+
+  private static Type infer(final String expression) {
+    final Expression expr = new Parser(expression).parse();
+    return new Checker(DECLARATIONS, true).check(expr).get(expr);
+  }
+
+  private static Type type(final String name, final String declarations) {
+    return Declarations.parse(declarations).type(name);
+  }
+}
@@ -0,0 +1,519 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.libdbm.cel.parser.Parser;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+class CompilerTests {
+  private static final Map<String, Object> VARIABLES =
+      Map.of(
+          "x", 10L,
+          "y", 2.5,
+          "name", "Alice",
+          "nums", List.of(1L, 2L, 3L, 4L, 5L),
+          "user", Map.of("name", "Bob", "age", 25L, "roles", List.of("admin", "user")));
+
+  @Test
+  void testMatchesInterpreter() {
+    final List<String> expressions =
+        List.of(
+            "x + 1",
+            "x - y",
+            "x * y",
+            "x / 4",
+            "x % 3",
+            "-x",
+            "!(x > 5)",
+            "x > 5 && y < 3.0",
+            "x < 5 || name == \"Alice\"",
+            "x == 10",
+            "x != 10",
+            "y >= 2.5",
+            "name + \" Smith\"",
+            "\"ab\" * 2",
+            "[1, 2] + [3]",
+            "{\"a\": x, \"b\": name}",
+            "x > 5 ? \"big\" : \"small\"",
+            "nums[2]",
+            "user.name",
+            "user.roles[0]",
+            "\"admin\" in user.roles",
+            "3 in nums",
+            "\"age\" in user",
+            "size(nums)",
+            "int(\"42\") + x",
+            "string(x)",
+            "type(y)",
+            "name.startsWith(\"Al\")",
+            "name.endsWith(\"ce\")",
+            "name.contains(\"lic\")",
+            "name.toUpperCase()",
+            "nums.size()",
+            "nums.map(n, n * 2)",
+            "nums.filter(n, n % 2 == 0)",
+            "nums.all(n, n > 0)",
+            "nums.exists(n, n > 4)",
+            "nums.existsOne(n, n == 3)",
+            "nums.map(x, x + 1).filter(x, x > 3)",
+            "nums.exists(n, nums.all(m, m <= n))",
+            "matches(name, \"^A.*e$\")",
+            "max(1, x, 3)");
+
+    for (final String expression : expressions) {
+      assertEquals(interpret(expression), compile(expression), expression);
+    }
+  }
+
+  @Test
+  void testMatchesInterpreterErrors() {
+    final List<String> expressions =
+        List.of(
+            "undefined",
+            "1 / 0",
+            "x % 0",
+            "\"a\" - 1",
+            "nums[10]",
+            "user.missing",
+            "name.map(n, n)",
+            "nums.map()",
+            "nums.map(1, x)",
+            "!x",
+            "x < name");
+
+    for (final String expression : expressions) {
+      final var expected = assertThrows(RuntimeException.class, () -> interpret(expression));
+      final var actual = assertThrows(RuntimeException.class, () -> compile(expression));
+      assertEquals(expected.getClass(), actual.getClass(), expression);
+      assertEquals(expected.getMessage(), actual.getMessage(), expression);
+    }
+  }
+
+  @Test
+  void testShortCircuit() {
+    assertEquals(true, compile("x == 10 || x / 0 > 1"));
+    assertEquals(false, compile("x != 10 && x / 0 > 1"));
+  }
+
+  @Test
+  void testMacroVariableScoping() {
+    final var program = CEL.compile("nums.map(x, x * 2) + [x]", null, Engine.COMPILED);
+    assertEquals(List.of(2L, 4L, 6L, 8L, 10L, 10L), program.evaluate(VARIABLES));
+  }
+
+  @Test
+  void testSlotResolution() {
+    assertEquals(120L, compile("x * x + x + x"));
+    assertEquals(List.of(3L, 4L, 5L), compile("nums.filter(n, n > 2 && n > x / 10 && n <= x)"));
+    assertEquals(
+        List.of(List.of(2L, 3L), List.of(3L, 4L)),
+        compile("[1, 2].map(a, [a, a + 1].map(b, b + 1))"));
+    assertEquals(List.of(11L, 12L), compile("[1, 2].map(n, n + .x)"));
+    assertEquals(List.of(1L, 2L), compile("[1, 2].map(x, .x)"));
+  }
+
+  @Test
+  void testCallerVariablesAreNotModified() {
+    final Map<String, Object> variables = new HashMap<>(VARIABLES);
+    CEL.compile("nums.map(x, x).filter(n, n > 1)", null, Engine.COMPILED).evaluate(variables);
+    assertEquals(VARIABLES, variables);
+  }
+
+  @Test
+  void testRepeatedSubexpressionsAreEvaluatedOnce() {
+    final var lookups = new AtomicInteger();
+    final var profile =
+        new HashMap<String, Object>(Map.of("x", 1L, "y", 2L, "flags", List.of(true, false))) {
+          @Override
+          public Object get(final Object key) {
+            lookups.incrementAndGet();
+            return super.get(key);
+          }
+        };
+    final var variables = Map.<String, Object>of("user", Map.of("profile", profile));
+
+    CEL.compile("user.profile.x", null, Engine.COMPILED).evaluate(variables);
+    final var single = lookups.getAndSet(0);
+    final var program =
+        CEL.compile(
+            "user.profile.x + user.profile.y + size(user.profile.flags.filter(f, f)) + "
+                + "size(user.profile.flags.filter(f, f))",
+            null,
+            Engine.COMPILED);
+    assertEquals(5L, program.evaluate(variables));
+    // Every repeated path and filter is evaluated once, so each key is looked up once
+    assertEquals(3 * single, lookups.get());
+  }
+
+  @Test
+  void testRepeatedCallsWithSideEffectsAreNotShared() {
+    final var calls = new AtomicInteger();
+    final var custom =
+        new CustomFunctions(Map.of("audit", args -> (long) calls.incrementAndGet()));
+    final var program = CEL.compile("audit(x) + audit(x)", custom, Engine.COMPILED);
+    assertEquals(3L, program.evaluate(VARIABLES));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void testAdaptiveMatchesInterpreter() {
+    final List<String> expressions =
+        List.of(
+            "x > 5 && y < 3.0",
+            "x < 5 || name == \"Alice\"",
+            "x > 5 && name.startsWith(\"A\") && 3 in nums && user.age > 20",
+            "x < 5 || name.endsWith(\"z\") || nums.exists(n, n > 4)",
+            "(x > 5 || y > 5.0) && !(name == \"Bob\")",
+            "matches(name, \"^A.*e$\") && x == 10",
+            "x == 10 && y",
+            "nums.filter(n, n > 1 && n < 5)");
+    final var cel = new CEL(null, Engine.ADAPTIVE);
+
+    for (final String expression : expressions) {
+      final var program = cel.compile(expression);
+      for (int i = 0; i < 100; i++) {
+        assertEquals(interpret(expression), program.evaluate(VARIABLES), expression);
+      }
+    }
+  }
+
+  @Test
+  void testAdaptiveReordersOperands() {
+    final var ast =
+        new Parser("matches(name, \"^A.*e$\") && nums == [1, 2, 3, 4, 5] && x == 11").parse();
+    final var executable = new Compiler(null, null, true).build(ast);
+    final var junction = assertInstanceOf(Junction.class, executable.node());
+    assertArrayEquals(new int[] {0, 1, 2}, junction.order());
+
+    for (int i = 0; i < 2 * Junction.PERIOD; i++) {
+      assertFalse(executable.evaluateBoolean(Activation.of(VARIABLES)));
+    }
+    // The call may fail and keeps its place; the operand that decides the result runs next
+    assertArrayEquals(new int[] {0, 2, 1}, junction.order());
+  }
+
+  @Test
+  void testAdaptiveErrorsMatchOtherEngines() {
+    final List<String> expressions =
+        List.of(
+            "nums[10] == 1 && name == \"Bob\" && x == 11",
+            "name == \"Bob\" && x == 11 && nums[10] == 1",
+            "name == \"Bob\" || x == 10 || nums[10] == 1",
+            "matches(name, \"[\") && name == \"Bob\" && false",
+            "x == 11 || missing == 1",
+            "x == 10 || missing == 1",
+            "missing == 1 && x == 11");
+    final var adaptive = new CEL(null, Engine.ADAPTIVE);
+
+    for (final String expression : expressions) {
+      final var program = adaptive.compile(expression);
+      final var expected = outcome(() -> interpret(expression));
+      for (int i = 0; i < 2 * Junction.PERIOD; i++) {
+        assertEquals(expected, outcome(() -> program.evaluate(VARIABLES)), expression);
+      }
+    }
+  }
+
+  @Test
+  void testAdaptiveDoesNotResolveLazyVariablesOutOfOrder() {
+    final var calls = new AtomicInteger();
+    final Map<String, java.util.function.Supplier<?>> suppliers =
+        Map.of("x", () -> 10L, "name", () -> calls.incrementAndGet() > 0 ? "Alice" : null);
+    final var program = new CEL(null, Engine.ADAPTIVE).compile("x == 10 || name == \"Bob\"");
+
+    for (int i = 0; i < 2 * Junction.PERIOD; i++) {
+      assertEquals(true, program.evaluateWith(Activation.lazy(suppliers)));
+    }
+    assertEquals(0, calls.get());
+  }
+
+  @Test
+  void testAdaptiveKeepsOrderOfSideEffects() {
+    final var custom = new CustomFunctions(Map.of("audit", args -> true));
+    final var ast = new Parser("audit(x) && x == 11").parse();
+    assertFalse(new Compiler(custom, null, true).build(ast).node() instanceof Junction);
+
+    final var method = new Parser("name.length() > 3 && x == 11").parse();
+    assertFalse(new Compiler(null, null, true).build(method).node() instanceof Junction);
+  }
+
+  @Test
+  void testCustomFunctions() {
+    final var custom = new CustomFunctions(Map.of("size", args -> 999L));
+    final var cel = new CEL(custom, Engine.COMPILED);
+    assertEquals(999L, cel.eval("size(nums)", VARIABLES));
+  }
+
+  @Test
+  void testTieredPromotion() {
+    final var program =
+        new Program(new Parser("x * 2").parse(), new StandardFunctions(), Engine.TIERED, 3);
+
+    assertFalse(program.isCompiled());
+    assertEquals(20L, program.evaluate(VARIABLES));
+    assertEquals(20L, program.evaluate(VARIABLES));
+    assertFalse(program.isCompiled());
+    assertEquals(20L, program.evaluate(VARIABLES));
+    assertTrue(program.isCompiled());
+    assertEquals(8L, program.evaluate(Map.of("x", 4L)));
+  }
+
+  @Test
+  void testTieredPromotionOfBatches() {
+    final var program =
+        new Program(new Parser("x * 2").parse(), new StandardFunctions(), Engine.TIERED, 3);
+
+    assertArrayEquals(new Object[] {2L}, program.evaluateAll(List.of(Map.of("x", 1L))));
+    assertFalse(program.isCompiled());
+    final var batch = List.of(Map.<String, Object>of("x", 2L), Map.<String, Object>of("x", 3L));
+    assertArrayEquals(new Object[] {4L, 6L}, program.evaluateAll(batch));
+    assertTrue(program.isCompiled());
+  }
+
+  @Test
+  void testArithmeticComparisonsMatchInterpreter() {
+    final List<String> expressions =
+        List.of(
+            "x + 1 > 10",
+            "x - y <= 7.5",
+            "x * y >= 25",
+            "x / 4 < 2.5",
+            "x % 3 > 0",
+            "11 > x + y",
+            "x * 2 >= x + 10",
+            "name + \"!\" > \"Alice\"",
+            "[1] + [2] < [1, 3]",
+            "9223372036854775807 + 1 < 0");
+
+    for (final String expression : expressions) {
+      assertEquals(interpret(expression), compile(expression), expression);
+    }
+    for (final String expression : List.of("x / 0 > 1", "x % 0 < 1", "x + 1 > name")) {
+      final var expected = assertThrows(RuntimeException.class, () -> interpret(expression));
+      final var actual = assertThrows(RuntimeException.class, () -> compile(expression));
+      assertEquals(expected.getMessage(), actual.getMessage(), expression);
+    }
+  }
+
+  @Test
+  void testTypedMatchesInterpreter() {
+    final var declarations =
+        Declarations.parse("x:int, y:double, name:string, nums:list<int>, user:map<string, dyn>");
+    final List<String> expressions =
+        List.of(
+            "x + 1",
+            "x - 3 * x",
+            "x % 3",
+            "x / 4",
+            "x + y",
+            "y * 2.0 - x",
+            "-x",
+            "-y",
+            "x > 5",
+            "x >= 10 && y < 3.0",
+            "x < 5 || y == 2.5",
+            "x == 10",
+            "x != 10.0",
+            "!(x > 5)",
+            "x > 5 ? x * 2 : x",
+            "nums.map(n, n * x)",
+            "nums.filter(n, n % 2 == 0)",
+            "nums.exists(n, n * 2 > x)",
+            "nums[1] + x",
+            "size(name) + x",
+            "name + x",
+            "user.age + x");
+
+    for (final String expression : expressions) {
+      final var program = CEL.compile(expression, null, Engine.COMPILED, declarations);
+      assertEquals(interpret(expression), program.evaluate(VARIABLES), expression);
+    }
+  }
+
+  @Test
+  void testTypedMatchesInterpreterErrors() {
+    final var declarations = Declarations.parse("x:int, y:double");
+    for (final String expression : List.of("x % 0", "x / 0", "y / 0.0", "undefined + x")) {
+      final var expected = assertThrows(RuntimeException.class, () -> interpret(expression));
+      final var actual =
+          assertThrows(
+              RuntimeException.class,
+              () ->
+                  CEL.compile(expression, null, Engine.COMPILED, declarations).evaluate(VARIABLES));
+      assertEquals(expected.getMessage(), actual.getMessage(), expression);
+    }
+  }
+
+  @Test
+  void testTypedNodesAreSpecialized() {
+    final var declarations = Declarations.parse("x:int, y:double, flag:bool");
+    assertInstanceOf(Node.OfLong.class, build("x * 2 + 1", declarations));
+    assertInstanceOf(Node.OfDouble.class, build("x * y", declarations));
+    assertInstanceOf(Node.OfBoolean.class, build("x + 1 > y && !flag", declarations));
+    // Without declarations nothing is proven
+    assertFalse(build("x * 2 + 1", null) instanceof Node.OfLong);
+  }
+
+  @Test
+  void testSharedTypedNodesStaySpecialized() {
+    final var declarations = Declarations.parse("x:int, y:double, flag:bool");
+    final var compiler = new Compiler(null, declarations);
+    final var expressions =
+        List.of("x * 2", "x * 2", "x * y", "x * y", "!flag", "!flag").stream()
+            .map(expression -> new Parser(expression).parse())
+            .toList();
+    final var nodes = compiler.buildAll(expressions);
+    assertInstanceOf(Node.OfLong.class, nodes[0]);
+    assertInstanceOf(Node.OfDouble.class, nodes[2]);
+    assertInstanceOf(Node.OfBoolean.class, nodes[4]);
+
+    final var frame =
+        new Frame(Activation.of(Map.of("x", 3L, "y", 0.5, "flag", false)), compiler.slots());
+    assertEquals(6L, nodes[0].evaluateLong(frame));
+    assertEquals(6L, nodes[1].evaluateLong(frame));
+    assertEquals(6L, nodes[1].evaluate(frame));
+    assertEquals(1.5, nodes[2].evaluateDouble(frame));
+    assertEquals(1.5, nodes[3].evaluate(frame));
+    assertTrue(nodes[4].evaluateBoolean(frame));
+    assertEquals(true, nodes[5].evaluate(frame));
+  }
+
+  @Test
+  void testTypedVariablesMustMatchDeclarations() {
+    final var program = CEL.compile("x + 1", null, Engine.COMPILED, Declarations.parse("x:int"));
+    assertEquals(4L, program.evaluate(Map.of("x", 3)));
+    final var error =
+        assertThrows(EvaluationError.class, () -> program.evaluate(Map.of("x", 2.5)));
+    assertEquals("Expected int value but got double", error.getMessage());
+  }
+
+  @Test
+  void testFusedMacroChainsMatchInterpreter() {
+    final List<String> expressions =
+        List.of(
+            "nums.filter(n, n > 1).map(n, n * 2)",
+            "nums.map(n, n * 2).filter(n, n > 4)",
+            "nums.filter(n, n > 1).map(n, n * x).exists(p, p > 40)",
+            "nums.filter(n, n % 2 == 1).map(n, n + 1).all(p, p % 2 == 0)",
+            "nums.map(n, n * 2).map(n, n + 1).existsOne(p, p == 7)",
+            "nums.map(n, n * 2).map(n, n + 1).existsOne(p, p > 7)",
+            "nums.filter(n, n > 10).exists(p, true)",
+            "nums.map(n, [n, n]).map(pair, pair[0] + pair[1]).filter(s, s > 4)",
+            "nums.map(x, x * 10).filter(y, y > x).map(z, z + x)",
+            "user.roles.filter(r, r != \"user\").map(r, r + \"!\").exists(r, r == \"admin!\")");
+    for (final String expression : expressions) {
+      assertEquals(interpret(expression), compile(expression), expression);
+    }
+
+    final var error =
+        assertThrows(EvaluationError.class, () -> compile("x.filter(n, n > 1).map(n, n * 2)"));
+    assertEquals("Macro filter requires a list target", error.getMessage());
+    assertThrows(EvaluationError.class, () -> compile("nums.filter(n, n > 1).map(n)"));
+  }
+
+  @Test
+  void testFusedMacroChainsStopEarly() {
+    final var visited = new AtomicInteger();
+    final var items =
+        new AbstractList<Long>() {
+          @Override
+          public Long get(final int index) {
+            visited.incrementAndGet();
+            return index + 1L;
+          }
+
+          @Override
+          public int size() {
+            return 5;
+          }
+        };
+    final var program =
+        CEL.compile("items.map(n, [n, 1]).exists(p, p == [2, 1])", null, Engine.COMPILED);
+    assertEquals(true, program.evaluate(Map.of("items", items)));
+    assertEquals(2, visited.get());
+  }
+
+  @Test
+  void testMacroChainsThatMayFailAreNotFused() {
+    final var calls = new AtomicInteger();
+    final var functions =
+        new CustomFunctions(
+            Map.of(
+                "check",
+                args -> {
+                  calls.incrementAndGet();
+                  return true;
+                }));
+    final var program =
+        CEL.compile(
+            "nums.filter(n, check(n)).map(n, n * 2).exists(p, p >= 4)", functions, Engine.COMPILED);
+    assertEquals(true, program.evaluate(VARIABLES));
+    assertEquals(5, calls.get());
+
+    // Errors from the elements after the decisive one are reported as by the interpreter
+    final var expression = "[1, 2, 0].map(n, 10 / n).exists(v, v > 5)";
+    final var expected = assertThrows(EvaluationError.class, () -> interpret(expression));
+    final var actual = assertThrows(EvaluationError.class, () -> compile(expression));
+    assertEquals(expected.getMessage(), actual.getMessage());
+  }
+
+  @Test
+  void testPrecompilesLiteralPatterns() {
+    final var program = CEL.compile("matches(name, \"^Al[a-z]+$\")", null, Engine.COMPILED);
+    final var before = Utilities.patternCacheStatistics();
+    assertEquals(true, program.evaluate(VARIABLES));
+    assertEquals(false, program.evaluate(Map.of("name", "Bob")));
+    final var after = Utilities.patternCacheStatistics();
+    assertEquals(before.hits() + before.misses(), after.hits() + after.misses());
+
+    // Invalid patterns still fail when evaluated
+    final var invalid = CEL.compile("matches(name, \"[\")", null, Engine.COMPILED);
+    assertThrows(PatternSyntaxException.class, () -> invalid.evaluate(VARIABLES));
+  }
+
+  @Test
+  void testCachesDynamicPatterns() {
+    final var pattern = "^dynamic-" + System.nanoTime() + "$";
+    final var program = CEL.compile("matches(name, pattern)", null, Engine.COMPILED);
+    final var before = Utilities.patternCacheStatistics();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(false, program.evaluate(Map.of("name", "Alice", "pattern", pattern)));
+    }
+    final var after = Utilities.patternCacheStatistics();
+    assertEquals(before.misses() + 1, after.misses());
+    assertEquals(before.hits() + 2, after.hits());
+  }
+
+  private static Node build(final String expression, final Declarations declarations) {
+    return new Compiler(null, declarations).build(new Parser(expression).parse()).node();
+  }
+
+  private static Object interpret(final String expression) {
+    final var interpreter = new Interpreter(new HashMap<>(VARIABLES), null);
+    return interpreter.evaluate(new Parser(expression).parse());
+  }
+
+  // The result of an evaluation, or the type of the error it raised
+  private static Object outcome(final java.util.function.Supplier<Object> evaluation) {
+    try {
+      return evaluation.get();
+    } catch (final RuntimeException e) {
+      return e.getClass();
+    }
+  }
+
+  private static Object compile(final String expression) {
+    return CEL.compile(expression, null, Engine.COMPILED).evaluate(VARIABLES);
+  }
+}
@@ -0,0 +1,84 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+
+class HashedListTests {
+  private static final List<Object> ELEMENTS =
+      Arrays.asList(
+          "a", "", true, null, 1L, 2.5, -0.0, 9007199254740993L, 9007199254740992.0,
+          Double.NaN, List.of(3L), Map.of("k", 4L), BigInteger.TEN);
+
+  @Test
+  void testMatchesLinearMembership() {
+    final var hashed = HashedList.of(ELEMENTS);
+    final List<Object> values =
+        Arrays.asList(
+            "a", "b", true, false, null, 1L, 1, 1.0, 2.5, 0L, 0.0, 9007199254740993L,
+            9007199254740992L, 9007199254740992.0, Double.NaN, List.of(3L), List.of(3.0),
+            Map.of("k", 4.0), 10L, BigInteger.TEN, List.of());
+    for (final Object value : values) {
+      assertEquals(
+          Operators.containsInList(ELEMENTS, value),
+          hashed.includes(value),
+          String.valueOf(value));
+    }
+    assertEquals(ELEMENTS, hashed);
+  }
+
+  @Test
+  void testEvaluatesLargeLiteralLists() {
+    final var literal =
+        LongStream.range(0, 500).mapToObj(i -> "\"u" + i + "\"").collect(Collectors.joining(","));
+    final var numbers =
+        LongStream.range(0, 500).mapToObj(Long::toString).collect(Collectors.joining(","));
+    for (final Engine engine : Engine.values()) {
+      final var users = CEL.compile("user in [" + literal + "]", null, engine);
+      assertEquals(true, users.evaluate(Map.of("user", "u499")));
+      assertEquals(false, users.evaluate(Map.of("user", "u500")));
+      assertEquals(false, users.evaluate(Map.of("user", 1L)));
+
+      final var ids = CEL.compile("id in [" + numbers + "]", null, engine);
+      assertEquals(true, ids.evaluate(Map.of("id", 42L)));
+      assertEquals(true, ids.evaluate(Map.of("id", 42.0)));
+      assertEquals(false, ids.evaluate(Map.of("id", 42.5)));
+      assertEquals(false, ids.evaluate(Map.of("id", List.of(42L))));
+    }
+  }
+
+  @Test
+  void testIndexesRuntimeListsSeenAgain() {
+    final var site = new HashedList.Site();
+    final var first = List.<Object>of("a", "b", 1L);
+    assertEquals(true, site.includes(first, "a"));
+    assertEquals(true, site.includes(first, 1.0));
+    assertEquals(false, site.includes(first, "c"));
+
+    // Another list replaces the one that was indexed
+    final var second = List.<Object>of("c");
+    assertEquals(true, site.includes(second, "c"));
+    assertEquals(false, site.includes(first, "c"));
+  }
+
+  @Test
+  void testDoesNotIndexMutableRuntimeLists() {
+    final var site = new HashedList.Site();
+    final var list = new ArrayList<Object>(List.of("a", "b"));
+    assertEquals(false, site.includes(list, "c"));
+    assertEquals(false, site.includes(list, "c"));
+
+    // A list modified between evaluations is seen as it is now
+    list.add("c");
+    assertEquals(true, site.includes(list, "c"));
+    list.remove("a");
+    assertEquals(false, site.includes(list, "a"));
+  }
+}
@@ -2,12 +2,17 @@ package com.libdbm.cel;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.libdbm.cel.ast.Expression;
 import com.libdbm.cel.parser.Parser;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import org.junit.jupiter.api.Test;
 
 class InterpreterTests {
@@ -232,6 +237,76 @@ class InterpreterTests {
     assertEquals(100L, interp.evaluate(new Parser("x").parse()));
   }
 
+  @Test
+  void testVariablesAreNotModified() {
+    final Map<String, Object> vars = new HashMap<>();
+    vars.put("nums", List.of(1L, 2L, 3L));
+
+    // An immutable map fails loudly if the interpreter attempts to bind into it
+    final Interpreter interp = new Interpreter(Map.copyOf(vars), null);
+    assertEquals(
+        List.of(List.of(2L, 3L), List.of(3L, 4L), List.of(4L, 5L)),
+        interp.evaluate(new Parser("nums.map(x, [x, x + 1].map(y, y + 1))").parse()));
+    assertEquals(List.of(1L, 2L, 3L), interp.evaluate(new Parser("nums.map(x, .x)").parse()));
+    assertThrows(EvaluationError.class, () -> interp.evaluate(new Parser(".x").parse()));
+  }
+
+  @Test
+  void testParallelMacrosMatchSequentialEvaluation() {
+    final var numbers = new ArrayList<Object>();
+    for (long i = 0; i < 10_000; i++) {
+      numbers.add(i);
+    }
+    final var variables = Map.<String, Object>of("nums", numbers);
+    final List<String> expressions =
+        List.of(
+            "nums.map(n, n * 2)",
+            "nums.filter(n, n % 3 == 0)",
+            "nums.filter(n, n > 100).map(n, [n].map(m, m + 1))",
+            "nums.all(n, n >= 0)",
+            "nums.all(n, n < 5000)",
+            "nums.exists(n, n == 9999)",
+            "nums.exists(n, n < 0)",
+            "nums.all(n, n == 7000 ? 1 / 0 : n < 3000)",
+            "nums.exists(n, n == 7000 ? 1 / 0 : n == 3000)");
+    for (final String expression : expressions) {
+      final var ast = new Parser(expression).parse();
+      final var sequential = new Interpreter(variables, null).evaluate(ast);
+      final var parallel =
+          new Interpreter(Activation.of(variables), null, 100).evaluate(ast);
+      assertEquals(sequential, parallel, expression);
+    }
+
+    // The error of the earliest failing element is reported
+    final var failing = new Parser("nums.map(n, n == 7000 ? 1 / 0 : n == 8000 ? -\"a\" : n)");
+    final var ast = failing.parse();
+    final var expected =
+        assertThrows(EvaluationError.class, () -> new Interpreter(variables, null).evaluate(ast));
+    final var actual =
+        assertThrows(
+            EvaluationError.class,
+            () -> new Interpreter(Activation.of(variables), null, 100).evaluate(ast));
+    assertEquals(expected.getMessage(), actual.getMessage());
+  }
+
+  @Test
+  void testParallelMacrosResolveVariablesOnce() {
+    final var resolutions = new AtomicInteger();
+    final Map<String, Supplier<?>> suppliers =
+        Map.of(
+            "nums",
+            () -> Collections.nCopies(10_000, 1L),
+            "limit",
+            () -> {
+              resolutions.incrementAndGet();
+              return 2L;
+            });
+    final var interp = new Interpreter(Activation.lazy(suppliers), null, 100);
+
+    assertEquals(true, interp.evaluate(new Parser("nums.all(n, n < limit)").parse()));
+    assertEquals(1, resolutions.get());
+  }
+
   // Helper method to evaluate simple expressions
   private Object eval(final String expr) {
     final Interpreter interp = new Interpreter();
@@ -0,0 +1,126 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class JavaFieldsTests {
+  private static final Map<String, Object> VARIABLES =
+      Map.of(
+          "order",
+          new Order("A-1", 3L, new Customer("Ada", true), Map.of("rush", true)),
+          "customers",
+          List.of(new Customer("Ada", true), new Customer("Bob", false)),
+          "point",
+          new Point(),
+          "name",
+          "text");
+
+  @Test
+  void testSelectsRecordComponents() {
+    for (final Engine engine : Engine.values()) {
+      assertEquals("A-1", eval("order.id", engine));
+      assertEquals(6L, eval("order.quantity * 2", engine));
+      assertEquals(true, eval("order.tags.rush", engine));
+      assertEquals("Ada", eval("order.customer.name", engine));
+    }
+  }
+
+  @Test
+  void testSelectsGettersAndPublicFields() {
+    for (final Engine engine : Engine.values()) {
+      assertEquals(true, eval("order.customer.active", engine));
+      assertEquals(List.of("Ada"), eval("customers.filter(c, c.active).map(c, c.name)", engine));
+      assertEquals(7L, eval("point.x + point.y", engine));
+      assertNull(eval("point.label", engine));
+    }
+  }
+
+  @Test
+  void testTestsForFields() {
+    for (final Engine engine : Engine.values()) {
+      assertEquals(true, eval("has(order, \"customer\")", engine));
+      assertEquals(true, eval("has(point, \"x\")", engine));
+      assertEquals(false, eval("has(order, \"missing\")", engine));
+      assertEquals(false, eval("has(name, \"bytes\")", engine));
+      // Static fields and getters are not fields of the object
+      assertEquals(false, eval("has(point, \"ORIGIN\")", engine));
+      assertEquals(false, eval("has(point, \"instances\")", engine));
+      // Neither are the methods inherited from Object
+      assertEquals(false, eval("has(order, \"class\")", engine));
+      assertEquals(false, eval("has(point, \"class\")", engine));
+    }
+  }
+
+  @Test
+  void testReportsFailures() {
+    for (final Engine engine : Engine.values()) {
+      final var missing = assertThrows(EvaluationError.class, () -> eval("order.missing", engine));
+      assertEquals("Field missing not found", missing.getMessage());
+      final var type = assertThrows(EvaluationError.class, () -> eval("order.class", engine));
+      assertEquals("Field class not found", type.getMessage());
+
+      final var platform = assertThrows(EvaluationError.class, () -> eval("name.bytes", engine));
+      assertEquals("Cannot select field from non-map type", platform.getMessage());
+
+      final var failed = assertThrows(EvaluationError.class, () -> eval("point.broken", engine));
+      assertEquals(
+          "Selection of field 'broken' on type " + Point.class.getName() + " failed: no value",
+          failed.getMessage());
+    }
+  }
+
+  @Test
+  void testCachesAccessors() {
+    final var accessor = JavaFields.resolve(Customer.class, "name");
+    assertSame(accessor, JavaFields.resolve(Customer.class, "name"));
+    assertNull(JavaFields.resolve(Customer.class, "missing"));
+  }
+
+  private static Object eval(final String expression, final Engine engine) {
+    return CEL.compile(expression, null, engine).evaluate(VARIABLES);
+  }
+
+  record Order(String id, long quantity, Customer customer, Map<String, Object> tags) {}
+
+  /** A bean with getters. */
+  static final class Customer {
+    private final String name;
+    private final boolean active;
+
+    Customer(final String name, final boolean active) {
+      this.name = name;
+      this.active = active;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+  }
+
+  /** An object with public fields. */
+  public static final class Point {
+    public static final Point ORIGIN = new Point();
+
+    public final long x = 3L;
+    public final long y = 4L;
+    public final String label = null;
+
+    public static int getInstances() {
+      return 1;
+    }
+
+    public String getBroken() {
+      throw new IllegalStateException("no value");
+    }
+  }
+}
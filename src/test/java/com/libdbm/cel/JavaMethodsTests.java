@@ -0,0 +1,116 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class JavaMethodsTests {
+  private static final Map<String, Object> VARIABLES =
+      Map.of(
+          "name",
+          "hello",
+          "nums",
+          List.of(1L, 2L, 3L),
+          "account",
+          new Account(),
+          "things",
+          List.of("abc", new StringBuilder(), "", List.of(1L)));
+
+  @Test
+  void testInvokesPublicMethods() {
+    for (final Engine engine : Engine.values()) {
+      assertEquals(5, eval("name.length()", engine));
+      assertEquals(2, eval("name.indexOf(\"l\")", engine));
+      assertEquals("hello!", eval("name.concat(\"!\")", engine));
+      assertEquals(100L, eval("account.getBalance()", engine));
+      assertEquals("Hi Ada and Bob", eval("account.greet(\"Ada\", \"Bob\")", engine));
+      assertEquals(10L, eval("account.sum(1, 2, 3, 4)", engine));
+      assertEquals(null, eval("account.reset()", engine));
+    }
+  }
+
+  @Test
+  void testInvokesMethodsOfNonPublicClassesThroughPublicInterfaces() {
+    // List.of returns a JDK internal class whose methods are only reachable through List
+    assertEquals(false, eval("nums.isEmpty()", Engine.INTERPRETED));
+    assertEquals(false, eval("nums.isEmpty()", Engine.COMPILED));
+  }
+
+  @Test
+  void testDispatchesPolymorphicCallSites() {
+    for (final Engine engine : Engine.values()) {
+      assertEquals(
+          List.of(false, true, true, false), eval("things.map(t, t.isEmpty())", engine));
+      final var error =
+          assertThrows(
+              IllegalArgumentException.class, () -> eval("things.map(t, t.length())", engine));
+      assertEquals(
+          "No such method 'length' on type java.util.ImmutableCollections$List12 with 0"
+              + " argument(s)",
+          error.getMessage());
+    }
+  }
+
+  @Test
+  void testReportsFailures() {
+    for (final Engine engine : Engine.values()) {
+      final var missing =
+          assertThrows(IllegalArgumentException.class, () -> eval("name.nope()", engine));
+      assertEquals(
+          "No such method 'nope' on type java.lang.String with 0 argument(s)",
+          missing.getMessage());
+
+      final var failed = assertThrows(EvaluationError.class, () -> eval("account.fail()", engine));
+      assertEquals(
+          "Invocation of method 'fail' on type " + Account.class.getName() + " failed: broken",
+          failed.getMessage());
+
+      final var variables = new HashMap<String, Object>();
+      variables.put("nothing", null);
+      final var receiver =
+          assertThrows(
+              IllegalArgumentException.class,
+              () -> CEL.compile("nothing.length()", null, engine).evaluate(variables));
+      assertEquals("Cannot call method on null", receiver.getMessage());
+    }
+  }
+
+  @Test
+  void testCachesResolvedMethods() {
+    final var args = new Object[] {"Ada", "Bob"};
+    final var first = JavaMethods.resolve(Account.class, "greet", args);
+    assertSame(first, JavaMethods.resolve(Account.class, "greet", args));
+    assertTrue(first.handle() != null);
+  }
+
+  private static Object eval(final String expression, final Engine engine) {
+    return CEL.compile(expression, null, engine).evaluate(VARIABLES);
+  }
+
+  /** A domain object exposing methods to expressions. */
+  public static final class Account {
+    public long getBalance() {
+      return 100L;
+    }
+
+    public String greet(final String first, final String second) {
+      return "Hi " + first + " and " + second;
+    }
+
+    public long sum(final long a, final long b, final long c, final long d) {
+      return a + b + c + d;
+    }
+
+    public void reset() {}
+
+    public Object fail() {
+      throw new IllegalStateException("broken");
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.libdbm.cel.ast.Binary;
+import com.libdbm.cel.ast.Call;
+import com.libdbm.cel.ast.Expression;
+import com.libdbm.cel.ast.Identifier;
+import com.libdbm.cel.ast.ListExpression;
+import com.libdbm.cel.ast.Literal;
+import com.libdbm.cel.ast.LiteralType;
+import com.libdbm.cel.ast.MapExpression;
+import com.libdbm.cel.parser.Parser;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class OptimizerTests {
+  private static final Map<String, Object> VARIABLES =
+      Map.of("x", 10L, "name", "Alice", "flag", true, "nums", List.of(1L, 2L, 3L));
+
+  @Test
+  void testFoldsConstantOperators() {
+    assertEquals(new Literal(7L, LiteralType.INT), optimize("1 + 2 * 3"));
+    assertEquals(new Literal(2.5, LiteralType.DOUBLE), optimize("5 / 2"));
+    assertEquals(new Literal(false, LiteralType.BOOL), optimize("!(1 < 2)"));
+    assertEquals(new Literal("ab", LiteralType.STRING), optimize("\"a\" + \"b\""));
+    assertEquals(new Literal(true, LiteralType.BOOL), optimize("2 in [1, 2, 3]"));
+  }
+
+  @Test
+  void testFoldsCollections() {
+    final var membership = (Binary) optimize("x in [1, [2, 3], {\"a\": 4}]");
+    final var list = (Literal) membership.right();
+    assertEquals(LiteralType.VALUE, list.type());
+    assertEquals(List.of(1L, List.of(2L, 3L), Map.of("a", 4L)), list.value());
+    assertThrows(UnsupportedOperationException.class, () -> ((List<?>) list.value()).clear());
+
+    assertEquals(new Literal(4L, LiteralType.INT), optimize("{\"a\": [1, 4]}.a[1]"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testReturnsFreshCollections() {
+    // Collections that can be returned are built by every evaluation rather than shared
+    assertInstanceOf(ListExpression.class, optimize("[1, [2, 3]]"));
+    assertInstanceOf(MapExpression.class, optimize("{\"a\": [1]}"));
+    assertInstanceOf(ListExpression.class, ((Binary) optimize("[1] + [x]")).left());
+
+    for (final Engine engine : Engine.values()) {
+      final var program = CEL.compile("x > 5 ? [1, [2, 3]] + [4] : {\"a\": [1]}", null, engine);
+      final var first = (List<Object>) program.evaluate(VARIABLES);
+      first.add(5L);
+      ((List<Object>) first.get(1)).add(6L);
+      assertEquals(List.of(1L, List.of(2L, 3L), 4L), program.evaluate(VARIABLES), engine.name());
+    }
+  }
+
+  @Test
+  void testIndexesLargeLiteralLists() {
+    final var indexed = (Binary) optimize("x in [1, 2, 3, 4, 5, 6, 7, 8]");
+    assertInstanceOf(HashedList.class, ((Literal) indexed.right()).value());
+    // Short lists are as fast to scan
+    final var scanned = (Binary) optimize("name in [\"a\", \"b\"]");
+    assertEquals(List.of("a", "b"), ((Literal) scanned.right()).value());
+  }
+
+  @Test
+  void testFoldsPureFunctions() {
+    assertEquals(new Literal(3, LiteralType.INT), optimize("size(\"abc\")"));
+    assertEquals(new Literal(42L, LiteralType.INT), optimize("int(\"42\")"));
+    assertEquals(
+        new Literal(Duration.ofMinutes(5), LiteralType.VALUE), optimize("duration(\"5m\")"));
+    assertEquals(new Literal(true, LiteralType.BOOL), optimize("\"hello\".startsWith(\"he\")"));
+    // Functions depending on the clock, time zone or locale are left alone
+    assertInstanceOf(Call.class, optimize("timestamp()"));
+    assertInstanceOf(Call.class, optimize("getHours(timestamp(\"2024-01-01T00:00:00Z\"))"));
+    assertInstanceOf(Call.class, optimize("\"a\".toUpperCase()"));
+  }
+
+  @Test
+  void testDoesNotFoldCustomFunctions() {
+    final var custom = new CustomFunctions(Map.of("size", args -> 999L));
+    final var expr = new Parser("size(\"abc\")").parse();
+    assertSame(expr, new Optimizer(custom).optimize(expr));
+    assertEquals(999L, new CEL(custom).eval("size(\"abc\")", VARIABLES));
+  }
+
+  @Test
+  void testRemovesDeadBranches() {
+    assertEquals(new Identifier("name"), optimize("1 < 2 ? name : x"));
+    assertEquals(new Identifier("x"), optimize("null ? name : x"));
+    assertEquals(new Literal(false, LiteralType.BOOL), optimize("false && x > 1"));
+    assertEquals(new Literal(true, LiteralType.BOOL), optimize("true || x > 1"));
+    assertInstanceOf(Binary.class, optimize("true && x > 1"));
+    assertEquals(optimize("x > 1"), optimize("true && x > 1"));
+    assertEquals(optimize("x > 1"), optimize("false || x > 1"));
+    assertEquals(optimize("x > 1"), optimize("x > 1 && true"));
+    assertEquals(optimize("x > 1"), optimize("!!(x > 1)"));
+    // Non-boolean operands are coerced, so they must be kept
+    assertInstanceOf(Binary.class, optimize("true && x"));
+    assertInstanceOf(Binary.class, optimize("x > 1 && false"));
+  }
+
+  @Test
+  void testKeepsFailingSubtrees() {
+    assertInstanceOf(Binary.class, optimize("1 / 0"));
+    assertInstanceOf(Call.class, optimize("int(\"abc\")"));
+    assertEquals(new Literal(false, LiteralType.BOOL), optimize("false && 1 / 0 > 1"));
+
+    final var error =
+        assertThrows(EvaluationError.class, () -> CEL.eval("x + 1 / 0", null, VARIABLES));
+    assertEquals("Division by zero", error.getMessage());
+  }
+
+  @Test
+  void testPreservesUnchangedNodes() {
+    final var expr = new Parser("x > 1 && nums.exists(n, n == x)").parse();
+    assertSame(expr, new Optimizer(null).optimize(expr));
+
+    final var partial = (Binary) new Parser("(x + 1) * (2 + 3)").parse();
+    final var optimized = (Binary) new Optimizer(null).optimize(partial);
+    assertSame(partial.left(), optimized.left());
+    assertEquals(new Literal(5L, LiteralType.INT), optimized.right());
+  }
+
+  @Test
+  void testMatchesUnoptimizedEvaluation() {
+    final List<String> expressions =
+        List.of(
+            "x + 2 * 3",
+            "[1, 2] + [x]",
+            "{\"a\": 1}.a + x",
+            "name + \" \" + string(1 + 1)",
+            "true ? x : 1 / 0",
+            "nums.map(n, n * (1 + 1))",
+            "nums.filter(n, n > size(\"ab\"))",
+            "flag && true",
+            "false || flag",
+            "(1 < 2 && flag) || x > 100",
+            "[1, 2, 3].exists(n, n == 2)",
+            "max(1, 5, 3) + x",
+            "\"a,b\".split(\",\")");
+
+    for (final String expression : expressions) {
+      final var ast = new Parser(expression).parse();
+      final var expected = new Interpreter(new HashMap<>(VARIABLES), null).evaluate(ast);
+      for (final Engine engine : Engine.values()) {
+        final var program = CEL.compile(expression, null, engine);
+        assertEquals(expected, program.evaluate(VARIABLES), expression);
+      }
+    }
+  }
+
+  private static Expression optimize(final String expression) {
+    return new Optimizer(null).optimize(new Parser(expression).parse());
+  }
+}
@@ -522,4 +522,25 @@ class ParserTests {
     assertEquals(3, e3.line());
     assertEquals(1, e3.column());
   }
+
+  @Test
+  void testRecordsSpans() {
+    final var source = "a && (b.c + 1 > 2)\n  ? items.filter(i, i.matches(\"x\")) : -d[0]";
+    final var parser = new Parser(source, true);
+    final var expr = (Conditional) parser.parse();
+    final var spans = parser.spans();
+
+    assertEquals(source, spans.get(expr).text(source));
+    final var and = (Binary) expr.condition();
+    assertEquals("a && (b.c + 1 > 2)", spans.get(and).text(source));
+    assertEquals("(b.c + 1 > 2)", spans.get(and.right()).text(source));
+    assertEquals("b.c", spans.get(((Binary) ((Binary) and.right()).left()).left()).text(source));
+    final var filter = (Call) expr.then();
+    assertEquals("items.filter(i, i.matches(\"x\"))", spans.get(filter).text(source));
+    assertEquals("i.matches(\"x\")", spans.get(filter.args().get(1)).text(source));
+    assertEquals("-d[0]", spans.get(expr.otherwise()).text(source));
+    assertEquals("2:5-2:36", spans.get(filter).format(source));
+
+    assertTrue(new Parser(source).spans().isEmpty());
+  }
 }
@@ -0,0 +1,97 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.libdbm.cel.parser.Parser;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ProfilerTests {
+  private static final String RULE =
+      "user.active && user.emails.filter(e, matches(e, \"@example\\\\.com$\")).size() > 0\n"
+          + "  ? \"internal\"\n"
+          + "  : \"external\"";
+
+  @Test
+  void testCountsHitsAndBranches() {
+    final var profiler = CEL.compile(RULE, null, Engine.COMPILED).profiler();
+    final var emails = List.of("a@example.com", "b@other.org", "c@example.com");
+    assertEquals(
+        "internal",
+        profiler.evaluate(Map.of("user", Map.of("active", true, "emails", emails))));
+    assertEquals(
+        "external",
+        profiler.evaluate(Map.of("user", Map.of("active", false, "emails", emails))));
+    assertEquals(
+        "external",
+        profiler.evaluate(Map.of("user", Map.of("active", true, "emails", List.of()))));
+
+    final var root = entry(profiler, RULE);
+    assertEquals(3, root.hits());
+    assertEquals(1, root.first());
+    assertEquals(2, root.second());
+
+    final var and = entry(profiler, RULE.substring(0, RULE.indexOf('\n')));
+    assertEquals("&&", and.kind());
+    assertEquals(3, and.hits());
+    assertEquals(1, and.first());
+    assertEquals(2, and.second());
+
+    // The body of the macro is evaluated once per element
+    final var matches = entry(profiler, "matches(e, \"@example\\\\.com$\")");
+    assertEquals("call matches", matches.kind());
+    assertEquals(3, matches.hits());
+    assertEquals("1:38-1:67", matches.span().format(RULE));
+
+    for (final Profiler.Entry entry : profiler.entries()) {
+      assertTrue(entry.inclusiveNanos() >= entry.exclusiveNanos(), entry.text());
+      assertTrue(entry.exclusiveNanos() >= 0, entry.text());
+    }
+    assertTrue(root.inclusiveNanos() >= and.inclusiveNanos());
+
+    final var report = profiler.report();
+    assertTrue(report.contains("1:38-1:67"), report);
+    assertTrue(report.contains("then 1 / else 2"), report);
+
+    profiler.reset();
+    assertTrue(profiler.entries().isEmpty());
+  }
+
+  @Test
+  void testReportsOptimizedNodesAndFailures() {
+    final var source = "x + (1 + 2) > 10 / y";
+    final var profiler = CEL.compile(source, null, Engine.INTERPRETED).profiler();
+    assertEquals(true, profiler.evaluate(Map.of("x", 10L, "y", 2L)));
+    assertThrows(EvaluationError.class, () -> profiler.evaluate(Map.of("x", 10L, "y", 0L)));
+
+    // The folded literal keeps the span of the expression it replaced
+    assertEquals("add", entry(profiler, "x + (1 + 2)").kind());
+    assertEquals(2, entry(profiler, "(1 + 2)").hits());
+    assertEquals(2, entry(profiler, "10 / y").hits());
+    assertEquals(2, entry(profiler, source).hits());
+  }
+
+  @Test
+  void testProfilesProgramsWithoutSource() {
+    final var program =
+        new Program(new Parser("x * 2").parse(), new StandardFunctions(), Engine.INTERPRETED);
+    final var profiler = program.profiler();
+    assertEquals(4L, profiler.evaluate(Map.of("x", 2L)));
+
+    final var multiply = profiler.entries().get(0);
+    assertNull(multiply.span());
+    assertEquals("multiply", multiply.text());
+    assertEquals(1, multiply.hits());
+  }
+
+  private static Profiler.Entry entry(final Profiler profiler, final String text) {
+    return profiler.entries().stream()
+        .filter(entry -> entry.text().equals(text))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No entry for " + text));
+  }
+}
@@ -0,0 +1,224 @@
+package com.libdbm.cel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.libdbm.cel.parser.ParseError;
+import com.libdbm.cel.parser.Parser;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class RuleSetTests {
+  private static final Map<String, Object> VARIABLES =
+      Map.of(
+          "user",
+          Map.of("tier", "gold", "age", 30L, "roles", List.of("admin", "dev")),
+          "cart",
+          Map.of("total", 150.0, "weight", 25L));
+
+  @Test
+  void testReportsMatchingRulesInOrder() {
+    final var rules = new LinkedHashMap<String, String>();
+    rules.put("gold-discount", "user.tier == \"gold\" && cart.total > 100.0");
+    rules.put("gold-shipping", "user.tier == \"gold\" && cart.weight < 20");
+    rules.put("admin", "\"admin\" in user.roles");
+    rules.put("adult", "user.age >= 18");
+    rules.put("not-bool", "user.age");
+    final var ruleSet = RuleSet.compile(rules);
+
+    assertEquals(5, ruleSet.size());
+    assertEquals(List.of("gold-discount", "admin", "adult"), ruleSet.evaluate(VARIABLES));
+    assertEquals(
+        List.of("adult"),
+        ruleSet.evaluate(
+            Map.of(
+                "user",
+                Map.of("tier", "silver", "age", 40L, "roles", List.of()),
+                "cart",
+                Map.of("total", 10.0, "weight", 1L))));
+  }
+
+  @Test
+  void testMatchesIndividualPrograms() {
+    final var rules = new LinkedHashMap<String, String>();
+    rules.put("a", "user.roles.exists(r, r == \"dev\") && user.age > 18");
+    rules.put("b", "user.roles.exists(r, r == \"dev\") || size(user.roles) > 5");
+    rules.put("c", "user.roles.map(r, r + \"!\").exists(r, r == \"dev!\")");
+    rules.put("d", "user.roles.filter(r, r.startsWith(\"a\")).size() == 1 && user.age > 18");
+    rules.put("e", "user.age > 18 ? cart.total > 200.0 : true");
+    rules.put("f", "!(user.age > 18)");
+    final var ruleSet = RuleSet.compile(rules);
+
+    final var expected =
+        rules.entrySet().stream()
+            .filter(rule -> Boolean.TRUE.equals(CEL.eval(rule.getValue(), null, VARIABLES)))
+            .map(Map.Entry::getKey)
+            .toList();
+    assertEquals(List.of("a", "b", "c", "d"), expected);
+    assertEquals(expected, ruleSet.evaluate(VARIABLES));
+  }
+
+  @Test
+  void testSharesSubexpressionsAcrossRules() {
+    final var lookups = new AtomicInteger();
+    final var user =
+        new HashMap<String, Object>(Map.of("score", "42")) {
+          @Override
+          public Object get(final Object key) {
+            lookups.incrementAndGet();
+            return super.get(key);
+          }
+        };
+    final var rules = new LinkedHashMap<String, String>();
+    rules.put("high", "int(user.score) > 40");
+    rules.put("low", "int(user.score) < 10");
+    rules.put("exact", "int(user.score) == 42 && int(user.score) + 1 == 43");
+    final var ruleSet = RuleSet.compile(rules);
+
+    assertEquals(List.of("high", "exact"), ruleSet.evaluate(Map.of("user", user)));
+    assertEquals(1, lookups.get());
+    assertEquals(List.of("high", "exact"), ruleSet.evaluate(Map.of("user", user)));
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  void testDoesNotShareCallsWithSideEffects() {
+    final var calls = new AtomicInteger();
+    final var functions =
+        new CustomFunctions(Map.of("audit", args -> (long) calls.incrementAndGet()));
+    final var rules = new LinkedHashMap<String, String>();
+    rules.put("a", "audit(user) > 0");
+    rules.put("b", "audit(user) > 1");
+    final var ruleSet = RuleSet.compile(rules, functions, null);
+
+    // Each rule calls the function, exactly as if it were compiled on its own
+    assertEquals(List.of("a", "b"), ruleSet.evaluate(VARIABLES));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void testResolvesVariablesOnce() {
+    final var resolutions = new AtomicInteger();
+    final Map<String, Supplier<?>> suppliers =
+        Map.of(
+            "user",
+            () -> {
+              resolutions.incrementAndGet();
+              return VARIABLES.get("user");
+            });
+    final var ruleSet =
+        RuleSet.compile(
+            Map.of("a", "user.age > 18", "b", "user.tier == \"gold\"", "c", "has(user, \"x\")"));
+
+    assertEquals(2, ruleSet.evaluateWith(Activation.lazy(suppliers)).size());
+    assertEquals(1, resolutions.get());
+  }
+
+  @Test
+  void testSharedSubexpressionsAreEvaluatedLazily() {
+    final var rules = new LinkedHashMap<String, String>();
+    rules.put("guarded", "x != 0 && 10 / x > 1");
+    rules.put("unguarded", "x == 0 || 10 / x > 1");
+    final var ruleSet = RuleSet.compile(rules);
+
+    assertEquals(List.of("unguarded"), ruleSet.evaluate(Map.of("x", 0L)));
+    assertEquals(List.of("guarded", "unguarded"), ruleSet.evaluate(Map.of("x", 2L)));
+  }
+
+  @Test
+  void testIndexesLeadingComparisons() {
+    final var rules = new LinkedHashMap<String, String>();
+    for (int i = 0; i < 1000; i++) {
+      rules.put("region-" + i, "order.region == \"r" + i + "\" && order.amount > 10");
+      rules.put("amount-" + i, i + " <= order.amount && order.region != \"x\"");
+      rules.put("code-" + i, "order.code.startsWith(\"c" + i + "\")");
+    }
+    rules.put("unindexed", "order.amount * 2 > 0");
+    final var ruleSet = RuleSet.compile(rules);
+
+    final var variables =
+        Map.<String, Object>of(
+            "order", Map.of("region", "r7", "amount", 2L, "code", "c12-special"));
+    assertEquals(
+        List.of("amount-0", "amount-1", "code-1", "amount-2", "code-12", "unindexed"),
+        ruleSet.evaluate(variables));
+
+    final var asts = rules.values().stream().map(rule -> new Parser(rule).parse()).toList();
+    final var compiler = new Compiler(null);
+    compiler.buildAll(asts);
+    final var index = RuleIndex.build(asts, compiler);
+    final var frame = new Frame(Activation.of(variables), compiler.slots());
+    // The candidates grow with the matching rules, not with the size of the set
+    assertEquals(7, index.candidates(frame).cardinality());
+  }
+
+  @Test
+  void testIndexedRulesMatchIndividualPrograms() {
+    final var rules = new LinkedHashMap<String, String>();
+    final List<String> atoms =
+        List.of(
+            "v == \"a\"",
+            "v == \"ab\"",
+            "\"b\" == v",
+            "v == true",
+            "v == 0",
+            "v == 1",
+            "1.0 == v",
+            "v > 0",
+            "v >= 1",
+            "v < 0",
+            "v <= -1.5",
+            "0.5 > v",
+            "v > 9007199254740992",
+            "v.startsWith(\"a\")",
+            "v.startsWith(\"\")",
+            "v.startsWith(\"abc\")");
+    for (int i = 0; i < atoms.size(); i++) {
+      rules.put("rule-" + i, atoms.get(i) + " && true");
+    }
+    final var ruleSet = RuleSet.compile(rules);
+
+    final List<Object> values =
+        Arrays.asList(
+            "a", "ab", "abcd", "b", "", true, false, 0L, -0.0, 1L, 1.0, 0.5, -2L, -1.5,
+            9007199254740993L, Double.NaN, null, List.of(1L));
+    for (final Object value : values) {
+      final var variables = new HashMap<String, Object>();
+      variables.put("v", value);
+      final var expected = new ArrayList<String>();
+      String error = null;
+      for (final var rule : rules.entrySet()) {
+        try {
+          if (Boolean.TRUE.equals(CEL.eval(rule.getValue(), null, variables))) {
+            expected.add(rule.getKey());
+          }
+        } catch (final RuntimeException e) {
+          error = e.getMessage();
+          break;
+        }
+      }
+      if (error != null) {
+        final var thrown = assertThrows(RuntimeException.class, () -> ruleSet.evaluate(variables));
+        assertEquals(error, thrown.getMessage(), String.valueOf(value));
+      } else {
+        assertEquals(expected, ruleSet.evaluate(variables), String.valueOf(value));
+      }
+    }
+  }
+
+  @Test
+  void testReportsErrors() {
+    assertThrows(ParseError.class, () -> RuleSet.compile(Map.of("bad", "user.")));
+
+    final var ruleSet = RuleSet.compile(Map.of("missing", "other > 1"));
+    final var error = assertThrows(EvaluationError.class, () -> ruleSet.evaluate(VARIABLES));
+    assertEquals("Undefined variable: other", error.getMessage());
+  }
+}